@@ -0,0 +1,100 @@
+package com.yammer.metrics.reporting;
+
+import java.util.concurrent.TimeUnit;
+
+import com.yammer.metrics.core.Clock;
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+
+/**
+ * A {@link MetricsRegistry} that can also create the metric types shipped
+ * with this library.
+ */
+public class DatadogMetricsRegistry extends MetricsRegistry {
+  private final Clock clock;
+
+  public DatadogMetricsRegistry() {
+    this(Clock.defaultClock());
+  }
+
+  public DatadogMetricsRegistry(Clock clock) {
+    super(clock);
+    this.clock = clock;
+  }
+
+  public IntervalHistogram newIntervalHistogram(Class<?> klass, String name) {
+    return newIntervalHistogram(klass, name, null);
+  }
+
+  public IntervalHistogram newIntervalHistogram(Class<?> klass, String name,
+      String scope) {
+    return newIntervalHistogram(createName(klass, name, scope));
+  }
+
+  public IntervalHistogram newIntervalHistogram(MetricName metricName) {
+    final IntervalHistogram existing = existing(metricName, IntervalHistogram.class);
+    if (existing != null) {
+      return existing;
+    }
+    return getOrAdd(metricName, new IntervalHistogram());
+  }
+
+  public IntervalTimer newIntervalTimer(Class<?> klass, String name) {
+    return newIntervalTimer(klass, name, null, TimeUnit.MILLISECONDS);
+  }
+
+  public IntervalTimer newIntervalTimer(Class<?> klass, String name,
+      TimeUnit durationUnit) {
+    return newIntervalTimer(klass, name, null, durationUnit);
+  }
+
+  public IntervalTimer newIntervalTimer(Class<?> klass, String name,
+      String scope, TimeUnit durationUnit) {
+    return newIntervalTimer(createName(klass, name, scope), durationUnit);
+  }
+
+  public IntervalTimer newIntervalTimer(MetricName metricName,
+      TimeUnit durationUnit) {
+    final IntervalTimer existing = existing(metricName, IntervalTimer.class);
+    if (existing != null) {
+      return existing;
+    }
+    return getOrAdd(metricName, new IntervalTimer(durationUnit, clock));
+  }
+
+  public StripedCounter newStripedCounter(Class<?> klass, String name) {
+    return newStripedCounter(klass, name, null);
+  }
+
+  public StripedCounter newStripedCounter(Class<?> klass, String name,
+      String scope) {
+    return newStripedCounter(createName(klass, name, scope));
+  }
+
+  public StripedCounter newStripedCounter(MetricName metricName) {
+    return getOrAdd(metricName, new StripedCounter());
+  }
+
+  public StripedMeter newStripedMeter(Class<?> klass, String name,
+      String eventType, TimeUnit unit) {
+    return newStripedMeter(klass, name, null, eventType, unit);
+  }
+
+  public StripedMeter newStripedMeter(Class<?> klass, String name,
+      String scope, String eventType, TimeUnit unit) {
+    return newStripedMeter(createName(klass, name, scope), eventType, unit);
+  }
+
+  public StripedMeter newStripedMeter(MetricName metricName, String eventType,
+      TimeUnit unit) {
+    return getOrAdd(metricName, new StripedMeter(eventType, unit, clock));
+  }
+
+  // Interval histograms allocate their buckets up front, so avoid building
+  // one just to find out the name is already taken.
+  private <T extends Metric> T existing(MetricName metricName, Class<T> klass) {
+    final Metric metric = allMetrics().get(metricName);
+    return klass.isInstance(metric) ? klass.cast(metric) : null;
+  }
+}
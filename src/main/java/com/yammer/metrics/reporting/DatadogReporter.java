@@ -13,14 +13,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map.Entry;
 import java.util.SortedMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public class DatadogReporter extends AbstractPollingReporter implements
-    MetricProcessor<Long> {
+    ExtendedMetricProcessor<Long> {
 
   public boolean printVmMetrics = true;
   protected final Locale locale = Locale.US;
@@ -32,18 +38,65 @@ public class DatadogReporter extends AbstractPollingReporter implements
   private static final Logger LOG = LoggerFactory
       .getLogger(DatadogReporter.class);
   private final VirtualMachineMetrics vm;
+  private final VmMetricsCollector vmCollector;
   private final MetricNameFormatter metricNameFormatter;
 
   private static final JsonFactory jsonFactory = new JsonFactory();
   private static final ObjectMapper mapper = new ObjectMapper(jsonFactory);
   private JsonGenerator jsonOut;
 
+  // Tiered reporting: metrics claimed by a tier are reported at that tier's
+  // period, the rest at the period passed to start(). The scheduler ticks at
+  // the greatest common divisor of all periods.
+  private final List<ReportingTier> tiers;
+  // The metrics assigned to each tier, parallel to tiers
+  private final List<ConcurrentMap<MetricName, Metric>> tierMetrics;
+  private final ConcurrentMap<MetricName, Metric> untieredMetrics =
+      new ConcurrentSkipListMap<MetricName, Metric>();
+  private final MetricsRegistryListener tierAssigner = new MetricsRegistryListener() {
+    public void onMetricAdded(MetricName name, Metric metric) {
+      assignTier(name, metric);
+    }
+
+    public void onMetricRemoved(MetricName name) {
+      untieredMetrics.remove(name);
+      for (ConcurrentMap<MetricName, Metric> metrics : tierMetrics) {
+        metrics.remove(name);
+      }
+    }
+  };
+  private long defaultPeriodMillis = 0;
+  private ScheduledExecutorService tierExecutor;
+
   public DatadogReporter(MetricsRegistry metricsRegistry,
       MetricPredicate predicate, VirtualMachineMetrics vm, Transport transport,
       Clock clock, String host, EnumSet<Expansions> expansions, Boolean printVmMetrics,
       MetricNameFormatter metricNameFormatter) {
+    this(metricsRegistry, predicate, vm, transport, clock, host, expansions,
+        printVmMetrics, metricNameFormatter,
+        Collections.<ReportingTier>emptyList());
+  }
+
+  public DatadogReporter(MetricsRegistry metricsRegistry,
+      MetricPredicate predicate, VirtualMachineMetrics vm, Transport transport,
+      Clock clock, String host, EnumSet<Expansions> expansions, Boolean printVmMetrics,
+      MetricNameFormatter metricNameFormatter, List<ReportingTier> tiers) {
+    this(metricsRegistry, predicate, vm, transport, clock, host, expansions,
+        printVmMetrics, metricNameFormatter, tiers, null);
+  }
+
+  /**
+   * @param vmCollector if not null, replaces {@link #pushVmMetrics(long)} as
+   *                    the source of JVM metrics
+   */
+  public DatadogReporter(MetricsRegistry metricsRegistry,
+      MetricPredicate predicate, VirtualMachineMetrics vm, Transport transport,
+      Clock clock, String host, EnumSet<Expansions> expansions, Boolean printVmMetrics,
+      MetricNameFormatter metricNameFormatter, List<ReportingTier> tiers,
+      VmMetricsCollector vmCollector) {
     super(metricsRegistry, "datadog-reporter");
     this.vm = vm;
+    this.vmCollector = vmCollector;
     this.transport = transport;
     this.predicate = predicate;
     this.clock = clock;
@@ -51,11 +104,95 @@ public class DatadogReporter extends AbstractPollingReporter implements
     this.expansions = expansions;
     this.printVmMetrics = printVmMetrics;
     this.metricNameFormatter = metricNameFormatter;
+    this.tiers = new ArrayList<ReportingTier>(tiers);
+    this.tierMetrics = new ArrayList<ConcurrentMap<MetricName, Metric>>(tiers.size());
+    for (int i = 0; i < tiers.size(); i++) {
+      this.tierMetrics.add(new ConcurrentSkipListMap<MetricName, Metric>());
+    }
+    if (!this.tiers.isEmpty()) {
+      metricsRegistry.addListener(tierAssigner);
+    }
+  }
+
+  @Override
+  public void start(long period, TimeUnit unit) {
+    if (tiers.isEmpty()) {
+      super.start(period, unit);
+      return;
+    }
+
+    defaultPeriodMillis = unit.toMillis(period);
+    long tick = defaultPeriodMillis;
+    for (ReportingTier tier : tiers) {
+      tick = gcd(tick, tier.getPeriodMillis());
+    }
+    final long tickMillis = tick;
+    tierExecutor = getMetricsRegistry().newScheduledThreadPool(1,
+        "datadog-reporter-tiers");
+    // The tick count lives here rather than in run(), so that calling run()
+    // directly reports everything without moving the tier schedule.
+    tierExecutor.scheduleAtFixedRate(new Runnable() {
+      private long elapsedMillis = tickMillis;
+
+      public void run() {
+        report(elapsedMillis);
+        elapsedMillis += tickMillis;
+      }
+    }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void shutdown() {
+    release();
+    super.shutdown();
+  }
+
+  @Override
+  public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+    release();
+    if (tierExecutor != null) {
+      tierExecutor.awaitTermination(timeout, unit);
+    }
+    super.shutdown(timeout, unit);
+  }
+
+  private void release() {
+    if (!tiers.isEmpty()) {
+      getMetricsRegistry().removeListener(tierAssigner);
+    }
+    if (tierExecutor != null) {
+      tierExecutor.shutdown();
+    }
+    if (vmCollector != null) {
+      vmCollector.close();
+    }
   }
 
   @Override
   public void run() {
+    report(-1);
+  }
+
+  /**
+   * Reports the metrics due {@code elapsedMillis} after start; a negative
+   * value reports every tier.
+   */
+  void report(long elapsedMillis) {
     try {
+      final boolean all = elapsedMillis < 0;
+      final boolean defaultDue = all || defaultPeriodMillis == 0
+          || elapsedMillis % defaultPeriodMillis == 0;
+      final List<ConcurrentMap<MetricName, Metric>> dueTiers =
+          new ArrayList<ConcurrentMap<MetricName, Metric>>(tiers.size());
+      for (int i = 0; i < tiers.size(); i++) {
+        if (all || tiers.get(i).isDue(elapsedMillis)) {
+          dueTiers.add(tierMetrics.get(i));
+        }
+      }
+      if (!defaultDue && dueTiers.isEmpty()) {
+        return;
+      }
+
       Request request = null;
       try {
         request = transport.prepare();
@@ -69,10 +206,23 @@ public class DatadogReporter extends AbstractPollingReporter implements
       }
 
       final long epoch = clock.time() / 1000;
-      if (this.printVmMetrics) {
-        pushVmMetrics(epoch);
+      if (this.printVmMetrics && defaultDue) {
+        if (vmCollector != null) {
+          collectVmMetrics(epoch);
+        } else {
+          pushVmMetrics(epoch);
+        }
+      }
+      if (tiers.isEmpty()) {
+        pushRegularMetrics(epoch);
+      } else {
+        if (defaultDue) {
+          pushTieredMetrics(untieredMetrics, epoch);
+        }
+        for (ConcurrentMap<MetricName, Metric> metrics : dueTiers) {
+          pushTieredMetrics(metrics, epoch);
+        }
       }
-      pushRegularMetrics(epoch);
 
       try {
         jsonOut.writeEndArray();
@@ -126,6 +276,33 @@ public class DatadogReporter extends AbstractPollingReporter implements
     pushSampling(name, timer, epoch);
   }
 
+  public void processStripedCounter(MetricName name, StripedCounter counter,
+      Long epoch) throws Exception {
+    pushCounter(name, counter.count(), epoch);
+  }
+
+  public void processIntervalHistogram(MetricName name,
+      IntervalHistogram histogram, Long epoch) throws Exception {
+    final IntervalSnapshot snapshot = histogram.snapshotAndReset();
+    if (expansions.contains(Expansions.COUNT))
+      pushCounter(name, snapshot.getCount(), epoch, Expansions.COUNT.toString());
+
+    // An idle interval has no distribution; zeros would drag down averages
+    if (snapshot.getCount() == 0)
+      return;
+
+    maybeExpand(Expansions.MIN, name, snapshot.getMin(), epoch);
+    maybeExpand(Expansions.MAX, name, snapshot.getMax(), epoch);
+    maybeExpand(Expansions.MEAN, name, snapshot.getMean(), epoch);
+    maybeExpand(Expansions.STD_DEV, name, snapshot.getStdDev(), epoch);
+    maybeExpand(Expansions.MEDIAN, name, snapshot.getMedian(), epoch);
+    maybeExpand(Expansions.P75, name, snapshot.get75thPercentile(), epoch);
+    maybeExpand(Expansions.P95, name, snapshot.get95thPercentile(), epoch);
+    maybeExpand(Expansions.P98, name, snapshot.get98thPercentile(), epoch);
+    maybeExpand(Expansions.P99, name, snapshot.get99thPercentile(), epoch);
+    maybeExpand(Expansions.P999, name, snapshot.get999thPercentile(), epoch);
+  }
+
   private void pushSummarizable(MetricName name, Summarizable summarizable,
       Long epoch) {
     maybeExpand(Expansions.MIN, name, summarizable.min(), epoch);
@@ -153,16 +330,48 @@ public class DatadogReporter extends AbstractPollingReporter implements
     for (Entry<String, SortedMap<MetricName, Metric>> entry : getMetricsRegistry()
         .groupedMetrics(predicate).entrySet()) {
       for (Entry<MetricName, Metric> subEntry : entry.getValue().entrySet()) {
-        final Metric metric = subEntry.getValue();
-        if (metric != null) {
-          try {
-            metric.processWith(this, subEntry.getKey(), epoch);
-          } catch (Exception e) {
-            LOG.error("Error pushing metric", e);
-          }
-        }
+        pushMetric(subEntry.getKey(), subEntry.getValue(), epoch);
+      }
+    }
+  }
+
+  protected void pushTieredMetrics(ConcurrentMap<MetricName, Metric> metrics,
+      long epoch) {
+    for (Entry<MetricName, Metric> entry : metrics.entrySet()) {
+      pushMetric(entry.getKey(), entry.getValue(), epoch);
+    }
+  }
+
+  private void pushMetric(MetricName name, Metric metric, long epoch) {
+    if (metric != null) {
+      try {
+        metric.processWith(this, name, epoch);
+      } catch (Exception e) {
+        LOG.error("Error pushing metric", e);
+      }
+    }
+  }
+
+  private void assignTier(MetricName name, Metric metric) {
+    if (!predicate.matches(name, metric)) {
+      return;
+    }
+    for (int i = 0; i < tiers.size(); i++) {
+      if (tiers.get(i).getPredicate().matches(name, metric)) {
+        tierMetrics.get(i).put(name, metric);
+        return;
       }
     }
+    untieredMetrics.put(name, metric);
+  }
+
+  private static long gcd(long a, long b) {
+    while (b != 0) {
+      final long t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
   }
 
   protected void pushVmMetrics(long epoch) {
@@ -180,6 +389,18 @@ public class DatadogReporter extends AbstractPollingReporter implements
     }
   }
 
+  protected void collectVmMetrics(final long epoch) {
+    vmCollector.collect(new VmMetricsCollector.Writer() {
+      public void gauge(String name, Number value) {
+        sendGauge(name, value, epoch);
+      }
+
+      public void counter(String name, long value) {
+        pushCounter(name, value, epoch);
+      }
+    });
+  }
+
   private void pushCounter(MetricName metricName, Long count, Long epoch,
       String... path) {
     pushCounter(metricNameFormatter.format(metricName, path), count, epoch);
@@ -251,6 +472,10 @@ public class DatadogReporter extends AbstractPollingReporter implements
     private String apiKey = null;
     private Clock clock = Clock.defaultClock();
     private MetricPredicate predicate = MetricPredicate.ALL;
+    private MetricsRegistry registry = Metrics.defaultRegistry();
+    private Transport transport = null;
+    private List<ReportingTier> tiers = new ArrayList<ReportingTier>();
+    private VmMetricsCollector vmCollector = null;
     private MetricNameFormatter metricNameFormatter = new DefaultMetricNameFormatter();
 
     public Builder withHost(String host) {
@@ -273,6 +498,11 @@ public class DatadogReporter extends AbstractPollingReporter implements
       return this;
     }
 
+    public Builder withVmMetricsCollector(VmMetricsCollector collector) {
+      this.vmCollector = collector;
+      return this;
+    }
+
     public Builder withApiKey(String key) {
       this.apiKey = key;
       return this;
@@ -293,17 +523,38 @@ public class DatadogReporter extends AbstractPollingReporter implements
       return this;
     }
 
+    public Builder withMetricsRegistry(MetricsRegistry registry) {
+      this.registry = registry;
+      return this;
+    }
+
+    public Builder withTransport(Transport transport) {
+      this.transport = transport;
+      return this;
+    }
+
+    /**
+     * Reports metrics matching the predicate every period instead of at the
+     * period passed to start(). Tiers are tried in the order they are added.
+     */
+    public Builder withTier(long period, TimeUnit unit, MetricPredicate predicate) {
+      this.tiers.add(new ReportingTier(period, unit, predicate));
+      return this;
+    }
+
     public DatadogReporter build() {
       return new DatadogReporter(
-        Metrics.defaultRegistry(),
+        this.registry,
         this.predicate,
         VirtualMachineMetrics.getInstance(),
-        new HttpTransport(apiKey),
+        this.transport != null ? this.transport : new HttpTransport(apiKey),
         this.clock,
         this.host,
         this.expansions,
         this.vmMetrics,
-        metricNameFormatter);
+        metricNameFormatter,
+        this.tiers,
+        this.vmCollector);
     }
   }
 }
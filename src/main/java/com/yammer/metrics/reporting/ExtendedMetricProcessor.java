@@ -0,0 +1,17 @@
+package com.yammer.metrics.reporting;
+
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricProcessor;
+
+/**
+ * A {@link MetricProcessor} that also understands the metric types shipped
+ * with this library. Those metrics are skipped by processors that do not
+ * implement this interface.
+ */
+public interface ExtendedMetricProcessor<T> extends MetricProcessor<T> {
+  public void processIntervalHistogram(MetricName name,
+      IntervalHistogram histogram, T context) throws Exception;
+
+  public void processStripedCounter(MetricName name, StripedCounter counter,
+      T context) throws Exception;
+}
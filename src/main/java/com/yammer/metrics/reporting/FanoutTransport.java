@@ -0,0 +1,217 @@
+package com.yammer.metrics.reporting;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends one serialized payload to several downstream transports, so the
+ * registry is walked and serialized once per tick however many
+ * destinations there are.
+ *
+ * Every destination has its own bounded queue and delivery thread: a slow
+ * or failing destination only loses its own payloads (oldest first) and
+ * never delays the reporter or the other destinations.
+ */
+public class FanoutTransport implements Transport {
+  private static final Logger LOG = LoggerFactory.getLogger(FanoutTransport.class);
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private final List<Destination> destinations;
+
+  public FanoutTransport(List<Destination> destinations) {
+    this.destinations = new ArrayList<Destination>(destinations);
+    for (Destination destination : this.destinations) {
+      destination.start();
+    }
+  }
+
+  public Request prepare() throws IOException {
+    return new FanoutRequest(this);
+  }
+
+  public List<Destination> getDestinations() {
+    return destinations;
+  }
+
+  /**
+   * Stops accepting payloads and waits for the queued ones to be delivered.
+   */
+  public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+    for (Destination destination : destinations) {
+      destination.executor.shutdown();
+    }
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (Destination destination : destinations) {
+      destination.executor.awaitTermination(
+          Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+  }
+
+  public interface SeriesFilter {
+    public boolean matches(String metric);
+  }
+
+  public static class Destination {
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    private final String name;
+    private final Transport transport;
+    private final int queueCapacity;
+    private final SeriesFilter filter;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private ThreadPoolExecutor executor;
+
+    public Destination(String name, Transport transport) {
+      this(name, transport, DEFAULT_QUEUE_CAPACITY, null);
+    }
+
+    /**
+     * @param filter if not null, only series whose metric name matches are
+     *               forwarded to this destination
+     */
+    public Destination(String name, Transport transport, int queueCapacity,
+        SeriesFilter filter) {
+      this.name = name;
+      this.transport = transport;
+      this.queueCapacity = queueCapacity;
+      this.filter = filter;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getSent() {
+      return sent.get();
+    }
+
+    public long getFailed() {
+      return failed.get();
+    }
+
+    public long getDropped() {
+      return dropped.get();
+    }
+
+    private void start() {
+      executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<Runnable>(queueCapacity),
+          new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+              final Thread thread = new Thread(r, "datadog-fanout-" + name);
+              thread.setDaemon(true);
+              return thread;
+            }
+          },
+          new RejectedExecutionHandler() {
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+              if (executor.isShutdown()) {
+                dropped.incrementAndGet();
+                return;
+              }
+              if (executor.getQueue().poll() != null) {
+                dropped.incrementAndGet();
+                LOG.warn("Queue for " + name + " is full, dropped oldest payload");
+              }
+              executor.execute(r);
+            }
+          });
+    }
+
+    private void enqueue(final byte[] payload) {
+      executor.execute(new Runnable() {
+        public void run() {
+          deliver(payload);
+        }
+      });
+    }
+
+    private void deliver(byte[] payload) {
+      try {
+        final byte[] body = filter == null ? payload : filter(payload, filter);
+        final Transport.Request request = transport.prepare();
+        final OutputStream out = request.getBodyWriter();
+        out.write(body);
+        out.flush();
+        request.send();
+        sent.incrementAndGet();
+      } catch (Exception e) {
+        failed.incrementAndGet();
+        LOG.error("Error sending metrics to " + name, e);
+      }
+    }
+  }
+
+  static byte[] filter(byte[] payload, SeriesFilter filter) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length);
+    final JsonParser parser = mapper.getFactory().createParser(payload);
+    final JsonGenerator generator = mapper.getFactory().createGenerator(out);
+    try {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IOException("Payload is not a JSON object");
+      }
+      generator.writeStartObject();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        final String field = parser.getCurrentName();
+        parser.nextToken();
+        generator.writeFieldName(field);
+        if (!"series".equals(field) || parser.getCurrentToken() != JsonToken.START_ARRAY) {
+          generator.copyCurrentStructure(parser);
+          continue;
+        }
+        generator.writeStartArray();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          final JsonNode series = mapper.readTree(parser);
+          if (filter.matches(series.path("metric").asText())) {
+            mapper.writeTree(generator, series);
+          }
+        }
+        generator.writeEndArray();
+      }
+      generator.writeEndObject();
+    } finally {
+      generator.close();
+      parser.close();
+    }
+    return out.toByteArray();
+  }
+
+  public static class FanoutRequest implements Transport.Request {
+    private final FanoutTransport transport;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    FanoutRequest(FanoutTransport transport) {
+      this.transport = transport;
+    }
+
+    public OutputStream getBodyWriter() {
+      return out;
+    }
+
+    public void send() throws Exception {
+      final byte[] payload = out.toByteArray();
+      for (Destination destination : transport.destinations) {
+        destination.enqueue(payload);
+      }
+    }
+  }
+}
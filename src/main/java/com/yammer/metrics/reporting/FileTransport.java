@@ -0,0 +1,49 @@
+package com.yammer.metrics.reporting;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Appends each payload to a local file, one JSON document per line.
+ */
+public class FileTransport implements Transport {
+  private final File file;
+
+  public FileTransport(File file) {
+    this.file = file;
+  }
+
+  public Request prepare() throws IOException {
+    return new FileRequest(this);
+  }
+
+  private synchronized void append(byte[] payload) throws IOException {
+    final FileOutputStream out = new FileOutputStream(file, true);
+    try {
+      out.write(payload);
+      out.write('\n');
+    } finally {
+      out.close();
+    }
+  }
+
+  public static class FileRequest implements Transport.Request {
+    private final FileTransport transport;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    FileRequest(FileTransport transport) {
+      this.transport = transport;
+    }
+
+    public OutputStream getBodyWriter() {
+      return out;
+    }
+
+    public void send() throws Exception {
+      transport.append(out.toByteArray());
+    }
+  }
+}
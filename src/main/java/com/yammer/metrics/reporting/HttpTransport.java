@@ -1,24 +1,71 @@
 package com.yammer.metrics.reporting;
 
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class HttpTransport implements Transport {
+    public static final String DEFAULT_BASE_URL = "https://app.datadoghq.com";
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+    public static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 30000;
+
     private final String seriesUrl;
+    private final boolean compress;
+    private final CloseableHttpClient client;
 
     public HttpTransport(String apiKey) {
-        this.seriesUrl = String.format("https://app.datadoghq.com/api/v1/series?api_key=%s", apiKey);
+        this(apiKey, DEFAULT_BASE_URL);
+    }
+
+    public HttpTransport(String apiKey, String baseUrl) {
+        this(apiKey, baseUrl, false);
+    }
+
+    public HttpTransport(String apiKey, String baseUrl, boolean compress) {
+        this(apiKey, baseUrl, compress, DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_SOCKET_TIMEOUT_MILLIS);
+    }
+
+    public HttpTransport(String apiKey, String baseUrl, boolean compress,
+                         int connectTimeoutMillis, int socketTimeoutMillis) {
+        this.seriesUrl = String.format("%s/api/v1/series?api_key=%s", baseUrl, apiKey);
+        this.compress = compress;
+        RequestConfig config = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setConnectionRequestTimeout(connectTimeoutMillis)
+                .setSocketTimeout(socketTimeoutMillis)
+                .build();
+        this.client = HttpClients.custom().setDefaultRequestConfig(config).build();
     }
 
     public Request prepare() throws IOException {
         return new HttpRequest(this);
     }
 
+    String getSeriesUrl() {
+        return seriesUrl;
+    }
+
+    boolean isCompressed() {
+        return compress;
+    }
+
+    /**
+     * Releases the pooled connections. The transport cannot be used afterwards.
+     */
+    public void close() throws IOException {
+        client.close();
+    }
+
     public static class HttpRequest implements Transport.Request {
         private final HttpTransport transport;
         private final HttpPost request;
@@ -37,12 +84,27 @@ public class HttpTransport implements Transport {
         public void send() throws Exception {
             this.out.flush();
             this.out.close();
-            this.request.setEntity(new ByteArrayEntity(out.toByteArray(), ContentType.APPLICATION_JSON));
+            byte[] body = out.toByteArray();
+            if (this.transport.compress) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+                GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+                gzip.write(body);
+                gzip.close();
+                body = compressed.toByteArray();
+                this.request.addHeader("Content-Encoding", "gzip");
+            }
+            this.request.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
 
-            org.apache.http.client.fluent.Request.Post(this.transport.seriesUrl)
-                    .addHeader("Content-Type", "application/json")
-                    .bodyByteArray(this.out.toByteArray())
-                    .execute();
+            CloseableHttpResponse response = this.transport.client.execute(this.request);
+            try {
+                int status = response.getStatusLine().getStatusCode();
+                if (status < 200 || status >= 300) {
+                    throw new IOException("Datadog rejected series with HTTP status " + status);
+                }
+            } finally {
+                EntityUtils.consumeQuietly(response.getEntity());
+                response.close();
+            }
         }
     }
 }
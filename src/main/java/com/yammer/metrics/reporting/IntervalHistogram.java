@@ -0,0 +1,186 @@
+package com.yammer.metrics.reporting;
+
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricProcessor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram that records into fixed-size log-linear buckets (in the style
+ * of HdrHistogram) and is reset every time it is reported, so each report
+ * describes exactly the values recorded since the previous one.
+ *
+ * Recording never allocates or locks. Two sets of buckets are kept; the
+ * reporter swaps them and drains the inactive one.
+ */
+public class IntervalHistogram implements Metric {
+  public static final int DEFAULT_SIGNIFICANT_BITS = 7;
+
+  private final int subBucketHalfCountMagnitude;
+  private final int subBucketHalfCount;
+  private final long subBucketMask;
+  private final long highestTrackableValue;
+  private final WriterReaderPhaser phaser = new WriterReaderPhaser();
+
+  private volatile Buckets active;
+  private Buckets inactive;
+
+  public IntervalHistogram() {
+    this(Long.MAX_VALUE, DEFAULT_SIGNIFICANT_BITS);
+  }
+
+  /**
+   * @param highestTrackableValue larger values are recorded as this value
+   * @param significantBits       bucket resolution; values are kept with a
+   *                              relative error of at most 2^-(significantBits - 1)
+   */
+  public IntervalHistogram(long highestTrackableValue, int significantBits) {
+    if (significantBits < 2 || significantBits > 20) {
+      throw new IllegalArgumentException("significantBits must be between 2 and 20");
+    }
+    if (highestTrackableValue < 1) {
+      throw new IllegalArgumentException("highestTrackableValue must be positive");
+    }
+    this.highestTrackableValue = highestTrackableValue;
+    this.subBucketHalfCountMagnitude = significantBits - 1;
+    this.subBucketHalfCount = 1 << subBucketHalfCountMagnitude;
+    this.subBucketMask = (1L << significantBits) - 1;
+
+    final int length = countsIndex(highestTrackableValue) + 1;
+    this.active = new Buckets(length);
+    this.inactive = new Buckets(length);
+  }
+
+  public void update(long value) {
+    if (value < 0) {
+      value = 0;
+    } else if (value > highestTrackableValue) {
+      value = highestTrackableValue;
+    }
+
+    final long criticalValue = phaser.writerCriticalSectionEnter();
+    try {
+      active.record(countsIndex(value), value);
+    } finally {
+      phaser.writerCriticalSectionExit(criticalValue);
+    }
+  }
+
+  /**
+   * Returns the values recorded since the last call and starts a new interval.
+   */
+  public IntervalSnapshot snapshotAndReset() {
+    return snapshotAndReset(1.0);
+  }
+
+  protected synchronized IntervalSnapshot snapshotAndReset(double scale) {
+    final Buckets drained = active;
+    active = inactive;
+    phaser.flipPhase();
+    inactive = drained;
+    return drained.drain(scale);
+  }
+
+  public <T> void processWith(MetricProcessor<T> processor, MetricName name,
+      T context) throws Exception {
+    if (processor instanceof ExtendedMetricProcessor) {
+      ((ExtendedMetricProcessor<T>) processor).processIntervalHistogram(name, this, context);
+    }
+  }
+
+  private int countsIndex(long value) {
+    final int bucketIndex = 63 - Long.numberOfLeadingZeros(value | subBucketMask)
+        - subBucketHalfCountMagnitude;
+    final int subBucketIndex = (int) (value >>> bucketIndex);
+    return ((bucketIndex + 1) << subBucketHalfCountMagnitude)
+        + (subBucketIndex - subBucketHalfCount);
+  }
+
+  private long highestEquivalentValue(int index) {
+    int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+    long subBucketIndex = (index & (subBucketHalfCount - 1)) + subBucketHalfCount;
+    if (bucketIndex < 0) {
+      subBucketIndex -= subBucketHalfCount;
+      bucketIndex = 0;
+    }
+    final long lowest = subBucketIndex << bucketIndex;
+    return lowest + (1L << bucketIndex) - 1;
+  }
+
+  private final class Buckets {
+    private final AtomicLongArray counts;
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    Buckets(int length) {
+      this.counts = new AtomicLongArray(length);
+    }
+
+    void record(int index, long value) {
+      counts.incrementAndGet(index);
+      sum.addAndGet(value);
+
+      long current;
+      while (value < (current = min.get())) {
+        if (min.compareAndSet(current, value)) {
+          break;
+        }
+      }
+      while (value > (current = max.get())) {
+        if (max.compareAndSet(current, value)) {
+          break;
+        }
+      }
+    }
+
+    // Only called once no writer can reach these buckets any more.
+    IntervalSnapshot drain(double scale) {
+      final long minValue = min.getAndSet(Long.MAX_VALUE);
+      final long maxValue = max.getAndSet(Long.MIN_VALUE);
+      final long sumValue = sum.getAndSet(0);
+
+      long count = 0;
+      for (int i = 0; i < counts.length(); i++) {
+        count += counts.get(i);
+      }
+      if (count == 0) {
+        return IntervalSnapshot.EMPTY;
+      }
+
+      final double mean = (double) sumValue / count;
+      final double[] quantiles = IntervalSnapshot.QUANTILES;
+      final double[] values = new double[quantiles.length];
+      final long[] thresholds = new long[quantiles.length];
+      for (int q = 0; q < quantiles.length; q++) {
+        thresholds[q] = Math.max(1, (long) Math.ceil(quantiles[q] * count));
+      }
+
+      double squares = 0;
+      long seen = 0;
+      int q = 0;
+      for (int i = 0; i < counts.length(); i++) {
+        final long bucketCount = counts.get(i);
+        if (bucketCount == 0) {
+          continue;
+        }
+        counts.set(i, 0);
+
+        final long value = Math.max(minValue, Math.min(maxValue, highestEquivalentValue(i)));
+        final double delta = value - mean;
+        squares += delta * delta * bucketCount;
+
+        seen += bucketCount;
+        while (q < quantiles.length && seen >= thresholds[q]) {
+          values[q++] = value * scale;
+        }
+      }
+
+      final double stdDev = count > 1 ? Math.sqrt(squares / (count - 1)) : 0.0;
+      return new IntervalSnapshot(count, minValue * scale, maxValue * scale,
+          mean * scale, stdDev * scale, values);
+    }
+  }
+}
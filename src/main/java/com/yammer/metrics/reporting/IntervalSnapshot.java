@@ -0,0 +1,72 @@
+package com.yammer.metrics.reporting;
+
+/**
+ * The values an {@link IntervalHistogram} recorded during one reporting
+ * interval.
+ */
+public class IntervalSnapshot {
+  static final double[] QUANTILES = { 0.5, 0.75, 0.95, 0.98, 0.99, 0.999 };
+  static final IntervalSnapshot EMPTY = new IntervalSnapshot(0, 0, 0, 0, 0,
+      new double[QUANTILES.length]);
+
+  private final long count;
+  private final double min;
+  private final double max;
+  private final double mean;
+  private final double stdDev;
+  private final double[] quantileValues;
+
+  IntervalSnapshot(long count, double min, double max, double mean,
+      double stdDev, double[] quantileValues) {
+    this.count = count;
+    this.min = min;
+    this.max = max;
+    this.mean = mean;
+    this.stdDev = stdDev;
+    this.quantileValues = quantileValues;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public double getMin() {
+    return min;
+  }
+
+  public double getMax() {
+    return max;
+  }
+
+  public double getMean() {
+    return mean;
+  }
+
+  public double getStdDev() {
+    return stdDev;
+  }
+
+  public double getMedian() {
+    return quantileValues[0];
+  }
+
+  public double get75thPercentile() {
+    return quantileValues[1];
+  }
+
+  public double get95thPercentile() {
+    return quantileValues[2];
+  }
+
+  public double get98thPercentile() {
+    return quantileValues[3];
+  }
+
+  public double get99thPercentile() {
+    return quantileValues[4];
+  }
+
+  public double get999thPercentile() {
+    return quantileValues[5];
+  }
+}
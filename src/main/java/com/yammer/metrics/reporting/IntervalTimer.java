@@ -0,0 +1,74 @@
+package com.yammer.metrics.reporting;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import com.yammer.metrics.core.Clock;
+
+/**
+ * An {@link IntervalHistogram} of durations. Durations are recorded in
+ * nanoseconds and reported in {@link #durationUnit()}.
+ */
+public class IntervalTimer extends IntervalHistogram {
+  public static final long DEFAULT_HIGHEST_TRACKABLE_NANOS = TimeUnit.HOURS.toNanos(1);
+
+  private final TimeUnit durationUnit;
+  private final Clock clock;
+
+  public IntervalTimer(TimeUnit durationUnit) {
+    this(durationUnit, Clock.defaultClock());
+  }
+
+  public IntervalTimer(TimeUnit durationUnit, Clock clock) {
+    this(durationUnit, clock, DEFAULT_HIGHEST_TRACKABLE_NANOS, DEFAULT_SIGNIFICANT_BITS);
+  }
+
+  public IntervalTimer(TimeUnit durationUnit, Clock clock,
+      long highestTrackableNanos, int significantBits) {
+    super(highestTrackableNanos, significantBits);
+    this.durationUnit = durationUnit;
+    this.clock = clock;
+  }
+
+  public TimeUnit durationUnit() {
+    return durationUnit;
+  }
+
+  public void update(long duration, TimeUnit unit) {
+    update(unit.toNanos(duration));
+  }
+
+  public <T> T time(Callable<T> event) throws Exception {
+    final long startTime = clock.tick();
+    try {
+      return event.call();
+    } finally {
+      update(clock.tick() - startTime);
+    }
+  }
+
+  public Context time() {
+    return new Context(this, clock);
+  }
+
+  @Override
+  public IntervalSnapshot snapshotAndReset() {
+    return snapshotAndReset(1.0 / durationUnit.toNanos(1));
+  }
+
+  public static class Context {
+    private final IntervalTimer timer;
+    private final Clock clock;
+    private final long startTime;
+
+    Context(IntervalTimer timer, Clock clock) {
+      this.timer = timer;
+      this.clock = clock;
+      this.startTime = clock.tick();
+    }
+
+    public void stop() {
+      timer.update(clock.tick() - startTime);
+    }
+  }
+}
@@ -0,0 +1,353 @@
+package com.yammer.metrics.reporting;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link VmMetricsCollector} covering memory pools, buffer pools, allocation,
+ * GC pauses, threads, file descriptors and CPU.
+ *
+ * MXBean handles are looked up once. GC pauses and allocated bytes come from
+ * GC notifications where the JVM sends them, so they cost nothing between
+ * collections. Only stop-the-world collections count as pauses; concurrent
+ * cycles (CMS, ZGC, Shenandoah) are reported separately as jvm.gc.cycle.*.
+ * Each collection stops starting new groups once the time budget
+ * is spent; the next collection starts with the groups that were skipped.
+ */
+public class JvmMetricsCollector implements VmMetricsCollector {
+  public static final long DEFAULT_BUDGET_MILLIS = 5;
+
+  public enum Group {
+    MEMORY, MEMORY_POOLS, BUFFER_POOLS, ALLOCATION, GC, THREADS,
+    FILE_DESCRIPTORS, CPU
+  }
+
+  static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+  private static final String[] OS_ATTRIBUTES = { "OpenFileDescriptorCount",
+      "MaxFileDescriptorCount", "ProcessCpuLoad", "SystemCpuLoad", "ProcessCpuTime" };
+  private static final String[] BUFFER_POOLS = { "direct", "mapped" };
+  // Beans whose notifications time a whole concurrent cycle, not a pause
+  private static final Set<String> CONCURRENT_CYCLE_COLLECTORS = new HashSet<String>(
+      Arrays.asList("ConcurrentMarkSweep", "ZGC Cycles", "ZGC Major Cycles",
+          "ZGC Minor Cycles", "Shenandoah Cycles"));
+  private static final Logger LOG = LoggerFactory.getLogger(JvmMetricsCollector.class);
+
+  private final Group[] groups;
+  private final long budgetNanos;
+  private int nextGroup = 0;
+
+  private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+  private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+  private final List<MemoryPoolMXBean> memoryPools = ManagementFactory.getMemoryPoolMXBeans();
+  private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+  private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+  private final ObjectName osName;
+  private final List<ObjectName> bufferPoolNames = new ArrayList<ObjectName>();
+  private final List<String> bufferPoolTags = new ArrayList<String>();
+
+  private final ConcurrentMap<String, IntervalTimer> gcPauses =
+      new ConcurrentHashMap<String, IntervalTimer>();
+  private final ConcurrentMap<String, IntervalTimer> gcCycles =
+      new ConcurrentHashMap<String, IntervalTimer>();
+  private final List<NotificationEmitter> emitters = new ArrayList<NotificationEmitter>();
+  private final NotificationListener gcListener = new NotificationListener() {
+    public void handleNotification(Notification notification, Object handback) {
+      onGc((CompositeData) notification.getUserData());
+    }
+  };
+  private volatile boolean gcNotifications = false;
+
+  private final String youngPool;
+  private final AtomicLong allocatedBytes = new AtomicLong();
+  private final AtomicLong youngUsedAfterGc = new AtomicLong();
+  private long lastAllocated = -1;
+  private long lastAllocationNanos;
+
+  public JvmMetricsCollector() {
+    this(EnumSet.allOf(Group.class), DEFAULT_BUDGET_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  public JvmMetricsCollector(EnumSet<Group> groups, long budget, TimeUnit unit) {
+    this.groups = groups.toArray(new Group[groups.size()]);
+    this.budgetNanos = unit.toNanos(budget);
+    this.osName = objectName(ManagementFactory.OPERATING_SYSTEM_MXBEAN_NAME);
+
+    for (String pool : BUFFER_POOLS) {
+      final ObjectName name = objectName("java.nio:type=BufferPool,name=" + pool);
+      if (name != null && server.isRegistered(name)) {
+        bufferPoolNames.add(name);
+        bufferPoolTags.add("[pool:" + pool + "]");
+      }
+    }
+
+    String young = null;
+    for (MemoryPoolMXBean pool : memoryPools) {
+      if (pool.getName().contains("Eden")) {
+        young = pool.getName();
+      }
+    }
+    this.youngPool = young;
+
+    if (groups.contains(Group.GC) || groups.contains(Group.ALLOCATION)) {
+      registerGcListeners();
+    }
+  }
+
+  /**
+   * Stops listening for GC notifications.
+   */
+  public void close() {
+    for (NotificationEmitter emitter : emitters) {
+      try {
+        emitter.removeNotificationListener(gcListener);
+      } catch (Exception e) {
+        LOG.debug("Could not remove GC listener", e);
+      }
+    }
+    emitters.clear();
+  }
+
+  public synchronized void collect(Writer writer) {
+    final long start = System.nanoTime();
+    final int first = nextGroup;
+    for (int i = 0; i < groups.length; i++) {
+      final int index = (first + i) % groups.length;
+      if (i > 0 && System.nanoTime() - start > budgetNanos) {
+        nextGroup = index;
+        return;
+      }
+      try {
+        collect(groups[index], writer);
+      } catch (Exception e) {
+        LOG.error("Error collecting " + groups[index] + " metrics", e);
+      }
+    }
+    nextGroup = 0;
+  }
+
+  private void collect(Group group, Writer writer) throws Exception {
+    switch (group) {
+      case MEMORY:
+        writeUsage(writer, "jvm.memory.heap", "", memory.getHeapMemoryUsage());
+        writeUsage(writer, "jvm.memory.non_heap", "", memory.getNonHeapMemoryUsage());
+        break;
+      case MEMORY_POOLS:
+        for (MemoryPoolMXBean pool : memoryPools) {
+          writeUsage(writer, "jvm.memory.pool", "[pool:" + pool.getName() + "]",
+              pool.getUsage());
+        }
+        break;
+      case BUFFER_POOLS:
+        for (int i = 0; i < bufferPoolNames.size(); i++) {
+          final Map<String, Object> values = attributes(bufferPoolNames.get(i),
+              "Count", "MemoryUsed", "TotalCapacity");
+          final String tag = bufferPoolTags.get(i);
+          writeNumber(writer, "jvm.buffer_pool.count" + tag, values.get("Count"));
+          writeNumber(writer, "jvm.buffer_pool.used" + tag, values.get("MemoryUsed"));
+          writeNumber(writer, "jvm.buffer_pool.capacity" + tag, values.get("TotalCapacity"));
+        }
+        break;
+      case ALLOCATION:
+        collectAllocation(writer);
+        break;
+      case GC:
+        for (GarbageCollectorMXBean gc : collectors) {
+          final String tag = "[type:" + gc.getName() + "]";
+          writer.gauge("jvm.gc.time" + tag, gc.getCollectionTime());
+          writer.counter("jvm.gc.runs" + tag, gc.getCollectionCount());
+        }
+        writeDurations(writer, "jvm.gc.pause", gcPauses);
+        writeDurations(writer, "jvm.gc.cycle", gcCycles);
+        break;
+      case THREADS:
+        writer.gauge("jvm.thread_count", threads.getThreadCount());
+        writer.gauge("jvm.daemon_thread_count", threads.getDaemonThreadCount());
+        writer.gauge("jvm.peak_thread_count", threads.getPeakThreadCount());
+        break;
+      case FILE_DESCRIPTORS:
+        final Map<String, Object> fds = attributes(osName, OS_ATTRIBUTES[0], OS_ATTRIBUTES[1]);
+        writeNumber(writer, "jvm.fd.open", fds.get(OS_ATTRIBUTES[0]));
+        writeNumber(writer, "jvm.fd.max", fds.get(OS_ATTRIBUTES[1]));
+        break;
+      case CPU:
+        final Map<String, Object> cpu = attributes(osName, OS_ATTRIBUTES[2],
+            OS_ATTRIBUTES[3], OS_ATTRIBUTES[4]);
+        writeNumber(writer, "jvm.cpu.process_load", cpu.get(OS_ATTRIBUTES[2]));
+        writeNumber(writer, "jvm.cpu.system_load", cpu.get(OS_ATTRIBUTES[3]));
+        writeNumber(writer, "jvm.cpu.process_time", cpu.get(OS_ATTRIBUTES[4]));
+        writer.gauge("jvm.cpu.load_average", os.getSystemLoadAverage());
+        writer.gauge("jvm.cpu.available_processors", os.getAvailableProcessors());
+        break;
+    }
+  }
+
+  private void collectAllocation(Writer writer) {
+    if (!gcNotifications || youngPool == null) {
+      return;
+    }
+    long youngUsed = 0;
+    for (MemoryPoolMXBean pool : memoryPools) {
+      if (pool.getName().equals(youngPool)) {
+        youngUsed = pool.getUsage().getUsed();
+      }
+    }
+    // Bytes allocated since start: everything collected out of the young
+    // generation plus what has been allocated there since the last GC.
+    final long allocated = allocatedBytes.get()
+        + Math.max(0, youngUsed - youngUsedAfterGc.get());
+    writer.counter("jvm.memory.allocated", allocated);
+
+    final long now = System.nanoTime();
+    if (lastAllocated >= 0 && now > lastAllocationNanos) {
+      final double seconds = (now - lastAllocationNanos) / 1e9;
+      writer.gauge("jvm.memory.allocation_rate",
+          Math.max(0, allocated - lastAllocated) / seconds);
+    }
+    lastAllocated = allocated;
+    lastAllocationNanos = now;
+  }
+
+  void onGc(CompositeData data) {
+    final String gcName = (String) data.get("gcName");
+    final String gcAction = (String) data.get("gcAction");
+    final CompositeData gcInfo = (CompositeData) data.get("gcInfo");
+    final long duration = ((Number) gcInfo.get("duration")).longValue();
+
+    if (!isPause(gcName, gcAction)) {
+      timer(gcCycles, gcName).update(duration, TimeUnit.MILLISECONDS);
+      return;
+    }
+    timer(gcPauses, gcName).update(duration, TimeUnit.MILLISECONDS);
+
+    if (youngPool != null) {
+      final MemoryUsage before = usage(gcInfo, "memoryUsageBeforeGc", youngPool);
+      final MemoryUsage after = usage(gcInfo, "memoryUsageAfterGc", youngPool);
+      if (before != null && after != null) {
+        final long previousAfter = youngUsedAfterGc.getAndSet(after.getUsed());
+        allocatedBytes.addAndGet(Math.max(0, before.getUsed() - previousAfter));
+      }
+    }
+  }
+
+  static boolean isPause(String gcName, String gcAction) {
+    if (CONCURRENT_CYCLE_COLLECTORS.contains(gcName)) {
+      return false;
+    }
+    // ZGC and Shenandoah report "end of GC cycle" for their cycle beans
+    return gcAction == null || !gcAction.contains("cycle");
+  }
+
+  private static IntervalTimer timer(ConcurrentMap<String, IntervalTimer> timers,
+      String gcName) {
+    IntervalTimer timer = timers.get(gcName);
+    if (timer == null) {
+      timers.putIfAbsent(gcName, new IntervalTimer(TimeUnit.MILLISECONDS));
+      timer = timers.get(gcName);
+    }
+    return timer;
+  }
+
+  private static void writeDurations(Writer writer, String prefix,
+      ConcurrentMap<String, IntervalTimer> timers) {
+    for (Map.Entry<String, IntervalTimer> entry : timers.entrySet()) {
+      final IntervalSnapshot durations = entry.getValue().snapshotAndReset();
+      final String tag = "[type:" + entry.getKey() + "]";
+      writer.gauge(prefix + ".count" + tag, durations.getCount());
+      writer.gauge(prefix + ".max" + tag, durations.getMax());
+      writer.gauge(prefix + ".p99" + tag, durations.get99thPercentile());
+    }
+  }
+
+  private void registerGcListeners() {
+    final NotificationFilter filter = new NotificationFilter() {
+      public boolean isNotificationEnabled(Notification notification) {
+        return GC_NOTIFICATION.equals(notification.getType());
+      }
+    };
+    for (GarbageCollectorMXBean gc : collectors) {
+      if (gc instanceof NotificationEmitter) {
+        final NotificationEmitter emitter = (NotificationEmitter) gc;
+        emitter.addNotificationListener(gcListener, filter, null);
+        emitters.add(emitter);
+        gcNotifications = true;
+      }
+    }
+  }
+
+  private static MemoryUsage usage(CompositeData gcInfo, String key, String pool) {
+    final TabularData table = gcInfo.containsKey(key) ? (TabularData) gcInfo.get(key) : null;
+    if (table == null) {
+      return null;
+    }
+    final CompositeData row = table.get(new Object[] { pool });
+    return row == null ? null : MemoryUsage.from((CompositeData) row.get("value"));
+  }
+
+  private static void writeUsage(Writer writer, String prefix, String tag,
+      MemoryUsage usage) {
+    writer.gauge(prefix + ".used" + tag, usage.getUsed());
+    writer.gauge(prefix + ".committed" + tag, usage.getCommitted());
+    if (usage.getMax() >= 0) {
+      writer.gauge(prefix + ".max" + tag, usage.getMax());
+    }
+  }
+
+  private static void writeNumber(Writer writer, String name, Object value) {
+    if (value instanceof Number) {
+      writer.gauge(name, (Number) value);
+    }
+  }
+
+  private Map<String, Object> attributes(ObjectName name, String... attributes)
+      throws Exception {
+    final Map<String, Object> values = new HashMap<String, Object>();
+    if (name == null) {
+      return values;
+    }
+    final AttributeList list = server.getAttributes(name, attributes);
+    for (Object o : list) {
+      final Attribute attribute = (Attribute) o;
+      values.put(attribute.getName(), attribute.getValue());
+    }
+    return values;
+  }
+
+  private static ObjectName objectName(String name) {
+    try {
+      return new ObjectName(name);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,351 @@
+package com.yammer.metrics.reporting;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects series payloads from the reporters of every JVM on the host over
+ * loopback TCP and forwards them upstream as consolidated batches, so the host
+ * keeps one connection to the intake instead of one per JVM.
+ *
+ * A connection opens with the client's upstream identity (see
+ * {@link #identityOf(Transport)}) as a modified UTF-8 string, which the relay
+ * answers with {@link #ACK}, or with {@link #REJECT} before closing if it
+ * forwards to a different upstream. Since the relay sends everything with its
+ * own API key and URL, only JVMs reporting to the same account share it.
+ * After that, frames are a 4 byte big-endian length followed by the JSON
+ * payload; the relay answers each frame with a single byte once it has been
+ * merged. Whichever process manages to bind the port is the relay, see
+ * {@link RelayTransport}.
+ */
+public class MetricsRelay {
+  public static final int DEFAULT_PORT = 17125;
+  public static final int DEFAULT_MAX_BATCH_BYTES = 5 * 1024 * 1024;
+  static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+  static final int PORT_RANGE = 1000;
+  static final int ACK = 1;
+  static final int REJECT = 2;
+  private static final byte[] BATCH_PREFIX = ascii("{\"series\":[");
+  private static final byte[] BATCH_SUFFIX = ascii("]}");
+
+  private static final Logger LOG = LoggerFactory.getLogger(MetricsRelay.class);
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  private final int port;
+  private final Transport upstream;
+  private final String identity;
+  private final long flushPeriodMillis;
+  private final int maxBatchBytes;
+
+  public final AtomicLong payloadsReceived = new AtomicLong();
+  public final AtomicLong seriesRelayed = new AtomicLong();
+  public final AtomicLong requestsSent = new AtomicLong();
+
+  private ServerSocket serverSocket;
+  private final Set<Socket> connections =
+      Collections.synchronizedSet(new HashSet<Socket>());
+  private boolean closed;
+  private ScheduledExecutorService executor;
+  private ByteArrayOutputStream batch;
+  private long batchSeries;
+
+  public MetricsRelay(int port, Transport upstream, long flushPeriod,
+      TimeUnit unit, int maxBatchBytes) {
+    this(port, upstream, identityOf(upstream), flushPeriod, unit, maxBatchBytes);
+  }
+
+  /**
+   * @param identity the upstream identity clients must present, as returned
+   *                 by {@link #identityOf(Transport)}
+   */
+  public MetricsRelay(int port, Transport upstream, String identity,
+      long flushPeriod, TimeUnit unit, int maxBatchBytes) {
+    this.port = port;
+    this.upstream = upstream;
+    this.identity = identity;
+    this.flushPeriodMillis = unit.toMillis(flushPeriod);
+    this.maxBatchBytes = maxBatchBytes;
+  }
+
+  /**
+   * Binds the relay port on the loopback interface.
+   *
+   * @return false if another process already holds the port
+   */
+  public synchronized boolean start() throws IOException {
+    try {
+      serverSocket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+    } catch (BindException e) {
+      return false;
+    }
+
+    executor = Executors.newScheduledThreadPool(1, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        final Thread thread = new Thread(r, "datadog-relay-" + port);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.scheduleAtFixedRate(new Runnable() {
+      public void run() {
+        flush();
+      }
+    }, flushPeriodMillis, flushPeriodMillis, TimeUnit.MILLISECONDS);
+    startThread("datadog-relay-accept", new Runnable() {
+      public void run() {
+        acceptConnections();
+      }
+    });
+    return true;
+  }
+
+  /**
+   * Stops listening and sends whatever is still batched.
+   */
+  public void shutdown() {
+    synchronized (this) {
+      closed = true;
+      try {
+        if (serverSocket != null) {
+          serverSocket.close();
+        }
+        synchronized (connections) {
+          for (Socket socket : connections) {
+            socket.close();
+          }
+        }
+      } catch (IOException e) {
+        LOG.debug("Error closing relay socket", e);
+      }
+      if (executor != null) {
+        executor.shutdown();
+      }
+    }
+    flush();
+  }
+
+  /**
+   * Merges one reporter payload into the current batch.
+   */
+  public void accept(byte[] payload) throws IOException {
+    // Copy the series out before touching the batch so a malformed payload
+    // cannot leave half an entry behind.
+    final ByteArrayOutputStream scratch = new ByteArrayOutputStream(payload.length);
+    final JsonParser parser = jsonFactory.createParser(payload);
+    final JsonGenerator scratchOut = jsonFactory.createGenerator(scratch);
+    long series = 0;
+    try {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IOException("Payload is not a JSON object");
+      }
+      scratchOut.writeStartArray();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        final boolean isSeries = "series".equals(parser.getCurrentName());
+        if (parser.nextToken() == JsonToken.START_ARRAY && isSeries) {
+          while (parser.nextToken() != JsonToken.END_ARRAY) {
+            scratchOut.copyCurrentStructure(parser);
+            series++;
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+      scratchOut.writeEndArray();
+    } finally {
+      scratchOut.close();
+      parser.close();
+    }
+    if (series == 0) {
+      payloadsReceived.incrementAndGet();
+      return;
+    }
+
+    // scratch holds "[...]", append what is between the brackets
+    final byte[] entries = scratch.toByteArray();
+    final boolean full;
+    synchronized (this) {
+      if (closed) {
+        throw new IOException("Relay is shut down");
+      }
+      if (batch == null) {
+        batch = new ByteArrayOutputStream();
+        batch.write(BATCH_PREFIX);
+      } else {
+        batch.write(',');
+      }
+      batch.write(entries, 1, entries.length - 2);
+      batchSeries += series;
+      full = batch.size() >= maxBatchBytes;
+    }
+    payloadsReceived.incrementAndGet();
+
+    if (full) {
+      executor.execute(new Runnable() {
+        public void run() {
+          flush();
+        }
+      });
+    }
+  }
+
+  public void flush() {
+    final byte[] body;
+    final long series;
+    synchronized (this) {
+      if (batch == null) {
+        return;
+      }
+      batch.write(BATCH_SUFFIX, 0, BATCH_SUFFIX.length);
+      body = batch.toByteArray();
+      series = batchSeries;
+      batch = null;
+      batchSeries = 0;
+    }
+
+    try {
+      final Transport.Request request = upstream.prepare();
+      final OutputStream out = request.getBodyWriter();
+      out.write(body);
+      out.flush();
+      request.send();
+      requestsSent.incrementAndGet();
+      seriesRelayed.addAndGet(series);
+    } catch (Exception e) {
+      LOG.error("Error relaying " + series + " series", e);
+    }
+  }
+
+  private void acceptConnections() {
+    while (!serverSocket.isClosed()) {
+      try {
+        final Socket socket = serverSocket.accept();
+        connections.add(socket);
+        startThread("datadog-relay-client", new Runnable() {
+          public void run() {
+            readFrames(socket);
+          }
+        });
+      } catch (IOException e) {
+        if (!serverSocket.isClosed()) {
+          LOG.error("Error accepting relay connection", e);
+        }
+      }
+    }
+  }
+
+  private void readFrames(Socket socket) {
+    try {
+      final DataInputStream in = new DataInputStream(
+          new BufferedInputStream(socket.getInputStream()));
+      final OutputStream out = socket.getOutputStream();
+      if (!identity.equals(in.readUTF())) {
+        LOG.warn("Rejecting relay client reporting to a different upstream");
+        out.write(REJECT);
+        out.flush();
+        return;
+      }
+      out.write(ACK);
+      out.flush();
+      while (true) {
+        final int length;
+        try {
+          length = in.readInt();
+        } catch (EOFException e) {
+          return;
+        }
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+          throw new IOException("Invalid relay frame length " + length);
+        }
+        final byte[] payload = new byte[length];
+        in.readFully(payload);
+        accept(payload);
+        out.write(ACK);
+        out.flush();
+      }
+    } catch (IOException e) {
+      LOG.warn("Dropping relay connection", e);
+    } finally {
+      connections.remove(socket);
+      try {
+        socket.close();
+      } catch (IOException e) {
+        LOG.debug("Error closing relay connection", e);
+      }
+    }
+  }
+
+  /**
+   * Identifies where a transport sends series. Two {@link HttpTransport}s
+   * with the same URL, API key and compression share an identity; any other
+   * transport gets a fresh one on every call, so it never shares a relay.
+   */
+  public static String identityOf(Transport upstream) {
+    if (!(upstream instanceof HttpTransport)) {
+      return UUID.randomUUID().toString();
+    }
+    final HttpTransport http = (HttpTransport) upstream;
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(http.getSeriesUrl().getBytes("UTF-8"));
+      digest.update((byte) (http.isCompressed() ? 1 : 0));
+      final StringBuilder hex = new StringBuilder();
+      for (byte b : digest.digest()) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * The default relay port for an upstream identity, so that JVMs reporting
+   * to different upstreams usually elect separate relays.
+   */
+  public static int portFor(String identity) {
+    return DEFAULT_PORT + (identity.hashCode() & Integer.MAX_VALUE) % PORT_RANGE;
+  }
+
+  private static void startThread(String name, Runnable runnable) {
+    final Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private static byte[] ascii(String s) {
+    try {
+      return s.getBytes("US-ASCII");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
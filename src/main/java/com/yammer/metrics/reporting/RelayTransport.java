@@ -0,0 +1,191 @@
+package com.yammer.metrics.reporting;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends payloads to the host's {@link MetricsRelay} over loopback instead of
+ * directly to the intake.
+ *
+ * The relay is elected lazily: if nothing is listening on the relay port when
+ * a payload is sent, this process tries to bind the port and become the relay
+ * itself, forwarding to {@code upstream}. If the relay goes away the next
+ * send re-runs the election.
+ *
+ * The relay sends every JVM's series with its own upstream, so a client only
+ * hands payloads to a relay forwarding to the same URL and API key. By default
+ * the port is derived from that identity; if the relay on the port forwards
+ * elsewhere it rejects the client, which then sends straight to
+ * {@code upstream}.
+ */
+public class RelayTransport implements Transport {
+  static final int SOCKET_TIMEOUT_MILLIS = 5000;
+
+  private final int port;
+  private final Transport upstream;
+  private final String identity;
+  private final long flushPeriodMillis;
+  private MetricsRelay relay;
+  private Socket socket;
+  private DataOutputStream socketOut;
+  private InputStream socketIn;
+
+  public RelayTransport(Transport upstream) {
+    this(upstream, MetricsRelay.identityOf(upstream));
+  }
+
+  private RelayTransport(Transport upstream, String identity) {
+    this(MetricsRelay.portFor(identity), upstream, identity, 10, TimeUnit.SECONDS);
+  }
+
+  /**
+   * @param flushPeriod how often the relay sends its batch, if this process
+   *                    becomes the relay
+   */
+  public RelayTransport(int port, Transport upstream, long flushPeriod,
+      TimeUnit unit) {
+    this(port, upstream, MetricsRelay.identityOf(upstream), flushPeriod, unit);
+  }
+
+  private RelayTransport(int port, Transport upstream, String identity,
+      long flushPeriod, TimeUnit unit) {
+    this.port = port;
+    this.upstream = upstream;
+    this.identity = identity;
+    this.flushPeriodMillis = unit.toMillis(flushPeriod);
+  }
+
+  public Request prepare() throws IOException {
+    return new RelayRequest(this);
+  }
+
+  /**
+   * Returns the relay this process runs, or null if it is a client.
+   */
+  public synchronized MetricsRelay getRelay() {
+    return relay;
+  }
+
+  public synchronized void shutdown() {
+    closeSocket();
+    if (relay != null) {
+      relay.shutdown();
+      relay = null;
+    }
+  }
+
+  synchronized void deliver(byte[] payload) throws Exception {
+    for (int attempt = 0; ; attempt++) {
+      if (relay == null && socket == null && !connectOrElect()) {
+        sendDirect(payload);
+        return;
+      }
+      if (relay != null) {
+        relay.accept(payload);
+        return;
+      }
+
+      try {
+        socketOut.writeInt(payload.length);
+        socketOut.write(payload);
+        socketOut.flush();
+        if (socketIn.read() != MetricsRelay.ACK) {
+          throw new IOException("Relay closed the connection");
+        }
+        return;
+      } catch (IOException e) {
+        closeSocket();
+        if (attempt > 0) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return false if the relay on the port forwards to a different upstream
+   */
+  private boolean connectOrElect() throws IOException {
+    try {
+      return connect();
+    } catch (ConnectException e) {
+      final MetricsRelay candidate = new MetricsRelay(port, upstream, identity,
+          flushPeriodMillis, TimeUnit.MILLISECONDS,
+          MetricsRelay.DEFAULT_MAX_BATCH_BYTES);
+      if (candidate.start()) {
+        relay = candidate;
+        return true;
+      }
+      return connect();
+    }
+  }
+
+  private boolean connect() throws IOException {
+    socket = new Socket("127.0.0.1", port);
+    try {
+      socket.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+      socket.setTcpNoDelay(true);
+      socketOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      socketIn = socket.getInputStream();
+      socketOut.writeUTF(identity);
+      socketOut.flush();
+      final int answer = socketIn.read();
+      if (answer == MetricsRelay.ACK) {
+        return true;
+      }
+      closeSocket();
+      if (answer == MetricsRelay.REJECT) {
+        return false;
+      }
+      throw new IOException("No relay handshake on port " + port);
+    } catch (IOException e) {
+      closeSocket();
+      throw e;
+    }
+  }
+
+  private void sendDirect(byte[] payload) throws Exception {
+    final Request request = upstream.prepare();
+    final OutputStream out = request.getBodyWriter();
+    out.write(payload);
+    out.flush();
+    request.send();
+  }
+
+  private void closeSocket() {
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // nothing left to do with it
+      }
+    }
+    socket = null;
+    socketOut = null;
+    socketIn = null;
+  }
+
+  public static class RelayRequest implements Transport.Request {
+    private final RelayTransport transport;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    RelayRequest(RelayTransport transport) {
+      this.transport = transport;
+    }
+
+    public OutputStream getBodyWriter() {
+      return out;
+    }
+
+    public void send() throws Exception {
+      transport.deliver(out.toByteArray());
+    }
+  }
+}
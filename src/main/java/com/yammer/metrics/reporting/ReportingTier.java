@@ -0,0 +1,36 @@
+package com.yammer.metrics.reporting;
+
+import com.yammer.metrics.core.MetricPredicate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A period and the predicate selecting the metrics reported at it. A reporter
+ * assigns each metric to the first tier whose predicate matches it once, when
+ * the metric is registered, rather than on every tick. Tiers hold no state and
+ * can be shared between reporters.
+ */
+public class ReportingTier {
+  private final long periodMillis;
+  private final MetricPredicate predicate;
+
+  public ReportingTier(long period, TimeUnit unit, MetricPredicate predicate) {
+    if (unit.toMillis(period) <= 0) {
+      throw new IllegalArgumentException("Tier period must be at least 1ms");
+    }
+    this.periodMillis = unit.toMillis(period);
+    this.predicate = predicate;
+  }
+
+  public long getPeriodMillis() {
+    return periodMillis;
+  }
+
+  public MetricPredicate getPredicate() {
+    return predicate;
+  }
+
+  boolean isDue(long elapsedMillis) {
+    return elapsedMillis % periodMillis == 0;
+  }
+}
@@ -0,0 +1,44 @@
+package com.yammer.metrics.reporting;
+
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricProcessor;
+
+/**
+ * A counter backed by a {@link StripedLong}, for paths where a yammer
+ * {@code Counter}'s single {@code AtomicLong} is contended.
+ */
+public class StripedCounter implements Metric {
+  private final StripedLong count = new StripedLong();
+
+  public void inc() {
+    count.add(1);
+  }
+
+  public void inc(long n) {
+    count.add(n);
+  }
+
+  public void dec() {
+    count.add(-1);
+  }
+
+  public void dec(long n) {
+    count.add(-n);
+  }
+
+  public long count() {
+    return count.sum();
+  }
+
+  public void clear() {
+    count.reset();
+  }
+
+  public <T> void processWith(MetricProcessor<T> processor, MetricName name,
+      T context) throws Exception {
+    if (processor instanceof ExtendedMetricProcessor) {
+      ((ExtendedMetricProcessor<T>) processor).processStripedCounter(name, this, context);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package com.yammer.metrics.reporting;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long sum that stays cheap to update under heavy contention, in the style
+ * of Java 8's {@code LongAdder}. Uncontended updates go to a single base
+ * cell; once two threads collide, updates are spread over one cache-line
+ * padded cell per processor and only added up by {@link #sum()}.
+ */
+public class StripedLong {
+  private static final int MAX_CELLS =
+      nextPowerOfTwo(Runtime.getRuntime().availableProcessors());
+  private static final ThreadLocal<int[]> probe = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      final int h = (int) (Thread.currentThread().getId() * 0x9E3779B9L);
+      return new int[] { h == 0 ? 1 : h };
+    }
+  };
+
+  private final Cell base = new Cell();
+  private volatile Cell[] cells;
+
+  public void add(long x) {
+    Cell[] cs = cells;
+    if (cs == null) {
+      final long v = base.get();
+      if (base.compareAndSet(v, v + x)) {
+        return;
+      }
+      cs = createCells();
+    }
+
+    final int[] h = probe.get();
+    while (true) {
+      final Cell cell = cs[h[0] & (cs.length - 1)];
+      final long v = cell.get();
+      if (cell.compareAndSet(v, v + x)) {
+        return;
+      }
+      // xorshift to a different cell after a collision
+      int n = h[0];
+      n ^= n << 13;
+      n ^= n >>> 17;
+      n ^= n << 5;
+      h[0] = n;
+    }
+  }
+
+  public void increment() {
+    add(1);
+  }
+
+  /**
+   * Not an atomic snapshot: updates made while summing may or may not be
+   * included.
+   */
+  public long sum() {
+    long sum = base.get();
+    final Cell[] cs = cells;
+    if (cs != null) {
+      for (Cell cell : cs) {
+        sum += cell.get();
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Only exact when no updates are made concurrently.
+   */
+  public void reset() {
+    base.set(0);
+    final Cell[] cs = cells;
+    if (cs != null) {
+      for (Cell cell : cs) {
+        cell.set(0);
+      }
+    }
+  }
+
+  private synchronized Cell[] createCells() {
+    if (cells == null) {
+      final Cell[] cs = new Cell[MAX_CELLS];
+      for (int i = 0; i < cs.length; i++) {
+        cs[i] = new Cell();
+      }
+      cells = cs;
+    }
+    return cells;
+  }
+
+  private static int nextPowerOfTwo(int n) {
+    int power = 1;
+    while (power < n) {
+      power <<= 1;
+    }
+    return power;
+  }
+
+  // Cells are allocated back to back, so the padding after each value keeps
+  // it off the cache line of the next cell's value.
+  @SuppressWarnings("serial")
+  static final class Cell extends AtomicLong {
+    long p1, p2, p3, p4, p5, p6, p7;
+  }
+}
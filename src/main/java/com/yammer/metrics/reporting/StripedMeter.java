@@ -0,0 +1,117 @@
+package com.yammer.metrics.reporting;
+
+import com.yammer.metrics.core.Clock;
+import com.yammer.metrics.core.Metered;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricProcessor;
+import com.yammer.metrics.stats.EWMA;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A meter whose {@link #mark()} only touches a {@link StripedLong}. The moving
+ * averages are brought up to date when they are read instead of by a tick
+ * thread, so there is no per-meter scheduled task either.
+ */
+public class StripedMeter implements Metered {
+  private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+  private final StripedLong count = new StripedLong();
+  private final EWMA m1Rate = EWMA.oneMinuteEWMA();
+  private final EWMA m5Rate = EWMA.fiveMinuteEWMA();
+  private final EWMA m15Rate = EWMA.fifteenMinuteEWMA();
+  private final String eventType;
+  private final TimeUnit rateUnit;
+  private final Clock clock;
+  private final long startTime;
+  private long lastTick;
+  private long lastTickCount;
+
+  public StripedMeter(String eventType, TimeUnit rateUnit) {
+    this(eventType, rateUnit, Clock.defaultClock());
+  }
+
+  public StripedMeter(String eventType, TimeUnit rateUnit, Clock clock) {
+    this.eventType = eventType;
+    this.rateUnit = rateUnit;
+    this.clock = clock;
+    this.startTime = clock.tick();
+    this.lastTick = startTime;
+  }
+
+  public void mark() {
+    count.add(1);
+  }
+
+  public void mark(long n) {
+    count.add(n);
+  }
+
+  public TimeUnit rateUnit() {
+    return rateUnit;
+  }
+
+  public String eventType() {
+    return eventType;
+  }
+
+  public long count() {
+    return count.sum();
+  }
+
+  public double fifteenMinuteRate() {
+    tickIfNecessary();
+    return m15Rate.rate(rateUnit);
+  }
+
+  public double fiveMinuteRate() {
+    tickIfNecessary();
+    return m5Rate.rate(rateUnit);
+  }
+
+  public double oneMinuteRate() {
+    tickIfNecessary();
+    return m1Rate.rate(rateUnit);
+  }
+
+  public double meanRate() {
+    final long count = count();
+    if (count == 0) {
+      return 0.0;
+    }
+    final long elapsed = clock.tick() - startTime;
+    return elapsed <= 0 ? 0.0 : (double) count / elapsed * rateUnit.toNanos(1);
+  }
+
+  public <T> void processWith(MetricProcessor<T> processor, MetricName name,
+      T context) throws Exception {
+    processor.processMeter(name, this, context);
+  }
+
+  private synchronized void tickIfNecessary() {
+    final long age = clock.tick() - lastTick;
+    if (age < TICK_INTERVAL) {
+      return;
+    }
+
+    final long ticks = age / TICK_INTERVAL;
+    lastTick += ticks * TICK_INTERVAL;
+
+    // Marks are only counted when the meter is read, so spread what was
+    // marked since the last read evenly over the elapsed intervals.
+    final long current = count.sum();
+    final long delta = current - lastTickCount;
+    lastTickCount = current;
+    final long share = delta / ticks;
+    final long remainder = delta % ticks;
+    for (long i = 0; i < ticks; i++) {
+      final long n = i < remainder ? share + 1 : share;
+      m1Rate.update(n);
+      m5Rate.update(n);
+      m15Rate.update(n);
+      m1Rate.tick();
+      m5Rate.tick();
+      m15Rate.tick();
+    }
+  }
+}
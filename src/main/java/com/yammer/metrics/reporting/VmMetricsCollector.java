@@ -0,0 +1,21 @@
+package com.yammer.metrics.reporting;
+
+/**
+ * Supplies the JVM metrics a {@link DatadogReporter} sends with every report.
+ * Names may carry tags in the usual {@code name[tag:value]} form.
+ */
+public interface VmMetricsCollector {
+
+  public void collect(Writer writer);
+
+  /**
+   * Releases whatever the collector registered with the JVM. Called when the
+   * reporter shuts down.
+   */
+  public void close();
+
+  public interface Writer {
+    void gauge(String name, Number value);
+    void counter(String name, long value);
+  }
+}
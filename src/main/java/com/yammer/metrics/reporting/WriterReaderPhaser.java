@@ -0,0 +1,47 @@
+package com.yammer.metrics.reporting;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets many writers record into the active half of a double buffer without
+ * locking while a single reader swaps the halves and waits for any writer
+ * still touching the old one to leave.
+ */
+public class WriterReaderPhaser {
+  private final AtomicLong startEpoch = new AtomicLong(0);
+  private final AtomicLong evenEndEpoch = new AtomicLong(0);
+  private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+
+  public long writerCriticalSectionEnter() {
+    return startEpoch.getAndIncrement();
+  }
+
+  public void writerCriticalSectionExit(long criticalValueAtEnter) {
+    if (criticalValueAtEnter < 0) {
+      oddEndEpoch.getAndIncrement();
+    } else {
+      evenEndEpoch.getAndIncrement();
+    }
+  }
+
+  /**
+   * Must be called with the reader lock held (i.e. from a method
+   * synchronized on the owner) after the active buffer has been swapped.
+   */
+  public void flipPhase() {
+    final boolean nextPhaseIsEven = startEpoch.get() < 0;
+    final long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+
+    if (nextPhaseIsEven) {
+      evenEndEpoch.set(initialStartValue);
+    } else {
+      oddEndEpoch.set(initialStartValue);
+    }
+
+    final long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+    final AtomicLong previousEndEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+    while (previousEndEpoch.get() != startValueAtFlip) {
+      Thread.yield();
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package com.yammer.metrics.reporting;
+
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Meter;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Compares update throughput of the yammer Counter and Meter with
+ * StripedCounter and StripedMeter as the number of updating threads grows.
+ *
+ * Usage: ContentionBenchmark [maxThreads] [secondsPerRun]
+ */
+public class ContentionBenchmark {
+
+  interface Operation {
+    void run();
+  }
+
+  static double opsPerSecond(final Operation operation, int threads,
+      long millis) throws InterruptedException {
+    final AtomicBoolean running = new AtomicBoolean(true);
+    final CountDownLatch start = new CountDownLatch(1);
+    final long[] counts = new long[threads];
+    final Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int index = t;
+      workers[t] = new Thread() {
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          long ops = 0;
+          while (running.get()) {
+            for (int i = 0; i < 1000; i++) {
+              operation.run();
+            }
+            ops += 1000;
+          }
+          counts[index] = ops;
+        }
+      };
+      workers[t].start();
+    }
+
+    final long begin = System.nanoTime();
+    start.countDown();
+    Thread.sleep(millis);
+    running.set(false);
+    long total = 0;
+    for (int t = 0; t < threads; t++) {
+      workers[t].join();
+      total += counts[t];
+    }
+    return total / ((System.nanoTime() - begin) / 1e9);
+  }
+
+  public static void main(String[] args) throws Exception {
+    final int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+        : Runtime.getRuntime().availableProcessors();
+    final long millis = TimeUnit.SECONDS.toMillis(args.length > 1 ? Long.parseLong(args[1]) : 2);
+
+    final DatadogMetricsRegistry registry = new DatadogMetricsRegistry();
+    try {
+      final Counter counter = registry.newCounter(ContentionBenchmark.class, "counter");
+      final StripedCounter stripedCounter = registry.newStripedCounter(ContentionBenchmark.class, "striped-counter");
+      final Meter meter = registry.newMeter(ContentionBenchmark.class, "meter", "ops", TimeUnit.SECONDS);
+      final StripedMeter stripedMeter = registry.newStripedMeter(ContentionBenchmark.class, "striped-meter", "ops", TimeUnit.SECONDS);
+
+      System.out.println(String.format("%8s %16s %16s %16s %16s", "threads",
+          "Counter", "StripedCounter", "Meter", "StripedMeter"));
+      for (int threads = 1; threads <= maxThreads; threads *= 2) {
+        System.out.println(String.format("%8d %16.0f %16.0f %16.0f %16.0f", threads,
+            opsPerSecond(new Operation() {
+              public void run() {
+                counter.inc();
+              }
+            }, threads, millis),
+            opsPerSecond(new Operation() {
+              public void run() {
+                stripedCounter.inc();
+              }
+            }, threads, millis),
+            opsPerSecond(new Operation() {
+              public void run() {
+                meter.mark();
+              }
+            }, threads, millis),
+            opsPerSecond(new Operation() {
+              public void run() {
+                stripedMeter.mark();
+              }
+            }, threads, millis)));
+      }
+    } finally {
+      registry.shutdown();
+    }
+  }
+
+}
@@ -4,11 +4,14 @@ import static org.junit.Assert.*;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -20,6 +23,8 @@ import com.yammer.metrics.core.Clock;
 import com.yammer.metrics.core.Counter;
 import com.yammer.metrics.core.Gauge;
 import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
 import com.yammer.metrics.core.MetricPredicate;
 import com.yammer.metrics.core.MetricsRegistry;
 import com.yammer.metrics.core.VirtualMachineMetrics;
@@ -183,5 +188,198 @@ public class DatadogReporterTest {
       assertEquals("tags", tags.get(1));
     }
   }
-}
 
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testIntervalTimerReportsAndResets() throws Throwable {
+    DatadogMetricsRegistry registry = new DatadogMetricsRegistry();
+    IntervalTimer timer = registry.newIntervalTimer(DatadogReporterTest.class,
+        "interval.timer");
+    timer.update(20, TimeUnit.MILLISECONDS);
+    timer.update(40, TimeUnit.MILLISECONDS);
+
+    DatadogReporter reporter = new DatadogReporter(registry, MetricPredicate.ALL,
+        vm, transport, clock, "hostname",
+        EnumSet.of(Expansions.COUNT, Expansions.MAX), false,
+        new DefaultMetricNameFormatter());
+    reporter.run();
+
+    String body = new String(transport.lastRequest.getPostBody(), "UTF-8");
+    Map<String, Object> request = new ObjectMapper().readValue(body,
+        HashMap.class);
+    List<Object> series = (List<Object>) request.get("series");
+    assertEquals(2, series.size());
+
+    Map<String, Object> count = (Map<String, Object>) series.get(0);
+    assertEquals("com.yammer.metrics.reporting.DatadogReporterTest.interval.timer.count",
+        count.get("metric"));
+    assertEquals(2, ((List<List<Number>>) count.get("points")).get(0).get(1));
+
+    Map<String, Object> max = (Map<String, Object>) series.get(1);
+    assertEquals("com.yammer.metrics.reporting.DatadogReporterTest.interval.timer.max",
+        max.get("metric"));
+    assertEquals(40.0, ((List<List<Number>>) max.get("points")).get(0).get(1));
+
+    reporter.run();
+    body = new String(transport.lastRequest.getPostBody(), "UTF-8");
+    request = new ObjectMapper().readValue(body, HashMap.class);
+    series = (List<Object>) request.get("series");
+    count = (Map<String, Object>) series.get(0);
+    assertEquals(0, ((List<List<Number>>) count.get("points")).get(0).get(1));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testIdleIntervalSendsOnlyCount() throws Throwable {
+    DatadogMetricsRegistry registry = new DatadogMetricsRegistry();
+    registry.newIntervalTimer(DatadogReporterTest.class, "idle.timer");
+
+    DatadogReporter reporter = new DatadogReporter(registry, MetricPredicate.ALL,
+        vm, transport, clock, "hostname", Expansions.ALL, false,
+        new DefaultMetricNameFormatter());
+    reporter.run();
+
+    String body = new String(transport.lastRequest.getPostBody(), "UTF-8");
+    Map<String, Object> request = new ObjectMapper().readValue(body,
+        HashMap.class);
+    List<Object> series = (List<Object>) request.get("series");
+    assertEquals(1, series.size());
+
+    Map<String, Object> count = (Map<String, Object>) series.get(0);
+    assertEquals("com.yammer.metrics.reporting.DatadogReporterTest.idle.timer.count",
+        count.get("metric"));
+    assertEquals(0, ((List<List<Number>>) count.get("points")).get(0).get(1));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testTieredReportingOnlyVisitsDueTiers() throws Throwable {
+    metricsRegistry.newCounter(DatadogReporterTest.class, "fast.counter").inc();
+    metricsRegistry.newCounter(DatadogReporterTest.class, "slow.counter").inc();
+
+    List<ReportingTier> tiers = new ArrayList<ReportingTier>();
+    tiers.add(new ReportingTier(10, TimeUnit.SECONDS, new MetricPredicate() {
+      public boolean matches(MetricName name, Metric metric) {
+        return name.getName().startsWith("fast.");
+      }
+    }));
+    DatadogReporter reporter = new DatadogReporter(metricsRegistry,
+        MetricPredicate.ALL, vm, transport, clock, "hostname",
+        EnumSet.of(Expansions.COUNT), false, new DefaultMetricNameFormatter(),
+        tiers);
+    reporter.start(60, TimeUnit.SECONDS);
+    try {
+      List<Integer> seriesPerTick = new ArrayList<Integer>();
+      for (int i = 0; i < 7; i++) {
+        reporter.report(i * 10000L);
+        String body = new String(transport.lastRequest.getPostBody(), "UTF-8");
+        Map<String, Object> request = new ObjectMapper().readValue(body,
+            HashMap.class);
+        seriesPerTick.add(((List<Object>) request.get("series")).size());
+      }
+      assertEquals(Arrays.asList(2, 1, 1, 1, 1, 1, 2), seriesPerTick);
+      assertEquals(7, transport.numRequests);
+
+      metricsRegistry.newCounter(DatadogReporterTest.class, "fast.late").inc();
+      reporter.report(10000);
+      String body = new String(transport.lastRequest.getPostBody(), "UTF-8");
+      assertTrue(body.contains("fast.late"));
+      assertFalse(body.contains("slow.counter"));
+
+      // A direct run() reports every tier and leaves the schedule alone.
+      reporter.run();
+      body = new String(transport.lastRequest.getPostBody(), "UTF-8");
+      assertTrue(body.contains("fast.late"));
+      assertTrue(body.contains("slow.counter"));
+    } finally {
+      reporter.shutdown();
+    }
+  }
+
+  @Test
+  public void testVmMetricsCollectorReplacesDefaultVmMetrics() throws Throwable {
+    final AtomicBoolean closed = new AtomicBoolean();
+    DatadogReporter reporter = new DatadogReporter(metricsRegistry,
+        MetricPredicate.ALL, vm, transport, clock, "hostname",
+        Expansions.ALL, true, new DefaultMetricNameFormatter(),
+        new ArrayList<ReportingTier>(), new VmMetricsCollector() {
+          public void collect(Writer writer) {
+            writer.gauge("jvm.custom[pool:eden]", 42);
+          }
+
+          public void close() {
+            closed.set(true);
+          }
+        });
+    reporter.run();
+
+    String body = new String(transport.lastRequest.getPostBody(), "UTF-8");
+    assertTrue(body.contains("\"metric\":\"jvm.custom\""));
+    assertTrue(body.contains("\"tags\":[\"pool:eden\"]"));
+    assertFalse(body.contains("jvm.memory.heap.used"));
+
+    assertFalse(closed.get());
+    reporter.shutdown();
+    assertTrue(closed.get());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testStripedMetricsReportedNatively() throws Throwable {
+    DatadogMetricsRegistry registry = new DatadogMetricsRegistry();
+    registry.newStripedCounter(DatadogReporterTest.class, "striped.counter").inc(3);
+    registry.newStripedMeter(DatadogReporterTest.class, "striped.meter",
+        "requests", TimeUnit.SECONDS).mark(5);
+
+    DatadogReporter reporter = new DatadogReporter(registry, MetricPredicate.ALL,
+        vm, transport, clock, "hostname", EnumSet.of(Expansions.COUNT), false,
+        new DefaultMetricNameFormatter());
+    reporter.run();
+
+    String body = new String(transport.lastRequest.getPostBody(), "UTF-8");
+    Map<String, Object> request = new ObjectMapper().readValue(body,
+        HashMap.class);
+    List<Object> series = (List<Object>) request.get("series");
+    assertEquals(2, series.size());
+
+    Map<String, Object> counter = (Map<String, Object>) series.get(0);
+    assertEquals("com.yammer.metrics.reporting.DatadogReporterTest.striped.counter",
+        counter.get("metric"));
+    assertEquals("counter", counter.get("type"));
+    assertEquals(3, ((List<List<Number>>) counter.get("points")).get(0).get(1));
+
+    Map<String, Object> meter = (Map<String, Object>) series.get(1);
+    assertEquals("com.yammer.metrics.reporting.DatadogReporterTest.striped.meter.count",
+        meter.get("metric"));
+    assertEquals(5, ((List<List<Number>>) meter.get("points")).get(0).get(1));
+  }
+
+  @Test
+  public void testTierSharedBetweenReporters() throws Throwable {
+    List<ReportingTier> tiers = new ArrayList<ReportingTier>();
+    tiers.add(new ReportingTier(10, TimeUnit.SECONDS, MetricPredicate.ALL));
+
+    MetricsRegistry otherRegistry = new MetricsRegistry();
+    MockTransport otherTransport = new MockTransport();
+    metricsRegistry.newCounter(DatadogReporterTest.class, "mine").inc();
+    otherRegistry.newCounter(DatadogReporterTest.class, "theirs").inc();
+
+    DatadogReporter reporter = new DatadogReporter(metricsRegistry,
+        MetricPredicate.ALL, vm, transport, clock, "hostname",
+        EnumSet.of(Expansions.COUNT), false, new DefaultMetricNameFormatter(),
+        tiers);
+    DatadogReporter other = new DatadogReporter(otherRegistry,
+        MetricPredicate.ALL, vm, otherTransport, clock, "hostname",
+        EnumSet.of(Expansions.COUNT), false, new DefaultMetricNameFormatter(),
+        tiers);
+    reporter.run();
+    other.run();
+
+    String body = new String(transport.lastRequest.getPostBody(), "UTF-8");
+    String otherBody = new String(otherTransport.lastRequest.getPostBody(), "UTF-8");
+    assertTrue(body.contains("mine"));
+    assertFalse(body.contains("theirs"));
+    assertTrue(otherBody.contains("theirs"));
+    assertFalse(otherBody.contains("mine"));
+  }
+}
@@ -0,0 +1,89 @@
+package com.yammer.metrics.reporting;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FanoutTransportTest {
+
+  static final String PAYLOAD = "{\"series\":["
+      + "{\"metric\":\"api.requests\",\"points\":[[1,2]],\"type\":\"counter\"},"
+      + "{\"metric\":\"jvm.thread_count\",\"points\":[[1,30]],\"type\":\"gauge\"}]}";
+
+  @Test
+  public void testSamePayloadReachesEveryDestination() throws Exception {
+    MockTransport primary = new MockTransport();
+    MockTransport secondary = new MockTransport();
+    File archive = File.createTempFile("metrics-archive", ".json");
+    archive.deleteOnExit();
+
+    FanoutTransport fanout = new FanoutTransport(Arrays.asList(
+        new FanoutTransport.Destination("primary", primary),
+        new FanoutTransport.Destination("secondary", secondary),
+        new FanoutTransport.Destination("archive", new FileTransport(archive))));
+    send(fanout, PAYLOAD);
+    send(fanout, PAYLOAD);
+    fanout.shutdown(5, TimeUnit.SECONDS);
+
+    assertEquals(2, primary.numRequests);
+    assertEquals(PAYLOAD, new String(primary.lastRequest.getPostBody(), "UTF-8"));
+    assertEquals(PAYLOAD, new String(secondary.lastRequest.getPostBody(), "UTF-8"));
+
+    Scanner lines = new Scanner(archive, "UTF-8");
+    assertEquals(PAYLOAD, lines.nextLine());
+    assertEquals(PAYLOAD, lines.nextLine());
+    lines.close();
+  }
+
+  @Test
+  public void testFailingDestinationIsIsolated() throws Exception {
+    MockTransport healthy = new MockTransport();
+    FanoutTransport fanout = new FanoutTransport(Arrays.asList(
+        new FanoutTransport.Destination("broken", new Transport() {
+          public Request prepare() throws IOException {
+            throw new IOException("unreachable");
+          }
+        }),
+        new FanoutTransport.Destination("healthy", healthy)));
+    send(fanout, PAYLOAD);
+    fanout.shutdown(5, TimeUnit.SECONDS);
+
+    assertEquals(1, healthy.numRequests);
+    assertEquals(1, fanout.getDestinations().get(0).getFailed());
+    assertEquals(1, fanout.getDestinations().get(1).getSent());
+  }
+
+  @Test
+  public void testFilterForwardsMatchingSeriesOnly() throws Exception {
+    MockTransport filtered = new MockTransport();
+    FanoutTransport fanout = new FanoutTransport(Arrays.asList(
+        new FanoutTransport.Destination("filtered", filtered,
+            FanoutTransport.Destination.DEFAULT_QUEUE_CAPACITY,
+            new FanoutTransport.SeriesFilter() {
+              public boolean matches(String metric) {
+                return metric.startsWith("api.");
+              }
+            })));
+    send(fanout, PAYLOAD);
+    fanout.shutdown(5, TimeUnit.SECONDS);
+
+    String body = new String(filtered.lastRequest.getPostBody(), "UTF-8");
+    assertTrue(body.contains("api.requests"));
+    assertTrue(!body.contains("jvm.thread_count"));
+  }
+
+  private static void send(Transport transport, String payload) throws Exception {
+    Transport.Request request = transport.prepare();
+    OutputStream out = request.getBodyWriter();
+    out.write(payload.getBytes("UTF-8"));
+    request.send();
+  }
+}
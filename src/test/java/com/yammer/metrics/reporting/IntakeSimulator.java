@@ -0,0 +1,237 @@
+package com.yammer.metrics.reporting;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A stand-in for the Datadog series intake listening on localhost. It decodes
+ * and validates every payload, keeps throughput counters and can be told to
+ * answer slowly, throttle, fail or drop the connection.
+ */
+public class IntakeSimulator {
+
+  public static class FaultProfile {
+    public static final FaultProfile NONE = new FaultProfile("none", 0, 0, 0, 0);
+
+    public final String name;
+    public final long latencyMillis;
+    public final double throttleRate;
+    public final double serverErrorRate;
+    public final double dropRate;
+
+    public FaultProfile(String name, long latencyMillis, double throttleRate,
+        double serverErrorRate, double dropRate) {
+      this.name = name;
+      this.latencyMillis = latencyMillis;
+      this.throttleRate = throttleRate;
+      this.serverErrorRate = serverErrorRate;
+      this.dropRate = dropRate;
+    }
+  }
+
+  public final AtomicLong requests = new AtomicLong();
+  public final AtomicLong acceptedRequests = new AtomicLong();
+  public final AtomicLong invalidRequests = new AtomicLong();
+  public final AtomicLong throttledRequests = new AtomicLong();
+  public final AtomicLong failedRequests = new AtomicLong();
+  public final AtomicLong droppedRequests = new AtomicLong();
+  public final AtomicLong compressedRequests = new AtomicLong();
+  public final AtomicLong bytesReceived = new AtomicLong();
+  public final AtomicLong seriesReceived = new AtomicLong();
+  public final AtomicLong seriesAccepted = new AtomicLong();
+  public final List<String> validationErrors =
+      Collections.synchronizedList(new ArrayList<String>());
+  public final Set<String> apiKeys =
+      Collections.synchronizedSet(new HashSet<String>());
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+  private final Random random = new Random(42);
+  private volatile FaultProfile faults = FaultProfile.NONE;
+  private HttpServer server;
+  private ExecutorService executor;
+
+  public void start() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/api/v1/series", new SeriesHandler());
+    executor = Executors.newFixedThreadPool(4);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  public String getBaseUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  public void setFaults(FaultProfile faults) {
+    this.faults = faults;
+  }
+
+  public void reset() {
+    requests.set(0);
+    acceptedRequests.set(0);
+    invalidRequests.set(0);
+    throttledRequests.set(0);
+    failedRequests.set(0);
+    droppedRequests.set(0);
+    compressedRequests.set(0);
+    bytesReceived.set(0);
+    seriesReceived.set(0);
+    seriesAccepted.set(0);
+    validationErrors.clear();
+    apiKeys.clear();
+  }
+
+  private double roll() {
+    synchronized (random) {
+      return random.nextDouble();
+    }
+  }
+
+  private class SeriesHandler implements HttpHandler {
+    public void handle(HttpExchange exchange) throws IOException {
+      final FaultProfile profile = faults;
+      requests.incrementAndGet();
+      final String query = exchange.getRequestURI().getQuery();
+      if (query != null && query.contains("api_key=")) {
+        apiKeys.add(query.substring(query.indexOf("api_key=") + "api_key=".length()));
+      }
+      byte[] body = readFully(exchange.getRequestBody());
+      bytesReceived.addAndGet(body.length);
+      if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+        compressedRequests.incrementAndGet();
+        body = readFully(new GZIPInputStream(new ByteArrayInputStream(body)));
+      }
+
+      final int series;
+      try {
+        series = validate(exchange, body);
+      } catch (IllegalArgumentException e) {
+        invalidRequests.incrementAndGet();
+        validationErrors.add(e.getMessage());
+        respond(exchange, 400, "{\"errors\":[\"" + e.getMessage() + "\"]}");
+        return;
+      }
+      seriesReceived.addAndGet(series);
+
+      if (profile.latencyMillis > 0) {
+        try {
+          Thread.sleep(profile.latencyMillis);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      double r = roll();
+      if ((r -= profile.dropRate) < 0) {
+        droppedRequests.incrementAndGet();
+        exchange.close();
+      } else if ((r -= profile.throttleRate) < 0) {
+        throttledRequests.incrementAndGet();
+        respond(exchange, 429, "{\"errors\":[\"rate limited\"]}");
+      } else if ((r -= profile.serverErrorRate) < 0) {
+        failedRequests.incrementAndGet();
+        respond(exchange, 503, "{\"errors\":[\"unavailable\"]}");
+      } else {
+        acceptedRequests.incrementAndGet();
+        seriesAccepted.addAndGet(series);
+        respond(exchange, 202, "{\"status\":\"ok\"}");
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static int validate(HttpExchange exchange, byte[] body) {
+    final String query = exchange.getRequestURI().getQuery();
+    if (query == null || !query.contains("api_key=")) {
+      throw new IllegalArgumentException("missing api_key");
+    }
+
+    final Map<String, Object> payload;
+    try {
+      payload = mapper.readValue(body, Map.class);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("malformed JSON");
+    }
+    final Object series = payload.get("series");
+    if (!(series instanceof List)) {
+      throw new IllegalArgumentException("missing series array");
+    }
+
+    for (Object o : (List<Object>) series) {
+      if (!(o instanceof Map)) {
+        throw new IllegalArgumentException("series entry is not an object");
+      }
+      final Map<String, Object> entry = (Map<String, Object>) o;
+      final Object metric = entry.get("metric");
+      if (!(metric instanceof String) || ((String) metric).length() == 0) {
+        throw new IllegalArgumentException("series entry without metric name");
+      }
+      final Object type = entry.get("type");
+      if (type != null && !"gauge".equals(type) && !"counter".equals(type)) {
+        throw new IllegalArgumentException("unknown type " + type + " for " + metric);
+      }
+      final Object tags = entry.get("tags");
+      if (tags != null && !(tags instanceof List)) {
+        throw new IllegalArgumentException("tags of " + metric + " is not an array");
+      }
+      final Object points = entry.get("points");
+      if (!(points instanceof List) || ((List<Object>) points).isEmpty()) {
+        throw new IllegalArgumentException("no points for " + metric);
+      }
+      for (Object p : (List<Object>) points) {
+        if (!(p instanceof List) || ((List<Object>) p).size() != 2
+            || !(((List<Object>) p).get(0) instanceof Number)
+            || !(((List<Object>) p).get(1) instanceof Number)) {
+          throw new IllegalArgumentException("malformed point for " + metric);
+        }
+      }
+    }
+    return ((List<Object>) series).size();
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    in.close();
+    return out.toByteArray();
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body)
+      throws IOException {
+    final byte[] bytes = body.getBytes("UTF-8");
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    final OutputStream out = exchange.getResponseBody();
+    out.write(bytes);
+    out.close();
+  }
+}
@@ -0,0 +1,98 @@
+package com.yammer.metrics.reporting;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IntakeSimulatorTest {
+
+  IntakeSimulator intake;
+
+  @Before
+  public void setUp() throws IOException {
+    intake = new IntakeSimulator();
+    intake.start();
+  }
+
+  @After
+  public void tearDown() {
+    intake.stop();
+  }
+
+  @Test
+  public void testAcceptsReporterPayload() {
+    ReporterLoadDriver.Result result = ReporterLoadDriver.run(intake,
+        IntakeSimulator.FaultProfile.NONE, 60, 3);
+
+    assertEquals(0, result.invalidRequests);
+    assertEquals(3, intake.acceptedRequests.get());
+    assertTrue(result.seriesSent > 0);
+    assertEquals(result.seriesSent, result.seriesAccepted);
+    assertEquals(0.0, result.lossPercent(), 0.0);
+  }
+
+  @Test
+  public void testRejectsMalformedPayload() throws Exception {
+    Transport.Request request = new HttpTransport("key", intake.getBaseUrl()).prepare();
+    request.getBodyWriter().write("{\"series\":[{\"points\":[]}]}".getBytes("UTF-8"));
+    try {
+      request.send();
+      fail("expected the intake to reject the payload");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("400"));
+    }
+    assertEquals(1, intake.invalidRequests.get());
+  }
+
+  @Test
+  public void testThrottledAndFailedRequestsAreLost() {
+    ReporterLoadDriver.Result throttled = ReporterLoadDriver.run(intake,
+        new IntakeSimulator.FaultProfile("throttle", 0, 1.0, 0, 0), 12, 2);
+    assertEquals(100.0, throttled.lossPercent(), 0.0);
+    assertEquals(2, intake.throttledRequests.get());
+
+    ReporterLoadDriver.Result failed = ReporterLoadDriver.run(intake,
+        new IntakeSimulator.FaultProfile("5xx", 0, 0, 1.0, 0), 12, 2);
+    assertEquals(100.0, failed.lossPercent(), 0.0);
+    assertEquals(2, intake.failedRequests.get());
+  }
+
+  @Test
+  public void testSocketTimeoutBoundsSend() throws Exception {
+    intake.setFaults(new IntakeSimulator.FaultProfile("slow", 2000, 0, 0, 0));
+    HttpTransport transport = new HttpTransport("key", intake.getBaseUrl(), false, 1000, 200);
+    Transport.Request request = transport.prepare();
+    request.getBodyWriter().write("{\"series\":[]}".getBytes("UTF-8"));
+    long start = System.nanoTime();
+    try {
+      request.send();
+      fail("expected the send to time out");
+    } catch (IOException e) {
+      // expected
+    } finally {
+      transport.close();
+    }
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+  }
+
+  @Test
+  public void testDroppedConnectionFailsSend() throws Exception {
+    intake.setFaults(new IntakeSimulator.FaultProfile("drop", 0, 0, 0, 1.0));
+    Transport.Request request = new HttpTransport("key", intake.getBaseUrl()).prepare();
+    request.getBodyWriter().write("{\"series\":[]}".getBytes("UTF-8"));
+    try {
+      request.send();
+      fail("expected the dropped connection to surface");
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals(1, intake.droppedRequests.get());
+  }
+}
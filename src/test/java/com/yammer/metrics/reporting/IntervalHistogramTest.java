@@ -0,0 +1,107 @@
+package com.yammer.metrics.reporting;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class IntervalHistogramTest {
+
+  @Test
+  public void testPercentilesWithinResolution() {
+    IntervalHistogram histogram = new IntervalHistogram();
+    for (long i = 1; i <= 10000; i++) {
+      histogram.update(i);
+    }
+
+    IntervalSnapshot snapshot = histogram.snapshotAndReset();
+    assertEquals(10000, snapshot.getCount());
+    assertEquals(1.0, snapshot.getMin(), 0.0);
+    assertEquals(10000.0, snapshot.getMax(), 0.0);
+    assertEquals(5000.5, snapshot.getMean(), 0.0);
+    assertEquals(2886.9, snapshot.getStdDev(), 2886.9 * 0.01);
+    assertEquals(5000.0, snapshot.getMedian(), 5000.0 * 0.016);
+    assertEquals(9500.0, snapshot.get95thPercentile(), 9500.0 * 0.016);
+    assertEquals(9990.0, snapshot.get999thPercentile(), 9990.0 * 0.016);
+  }
+
+  @Test
+  public void testResetOnSnapshot() {
+    IntervalHistogram histogram = new IntervalHistogram();
+    histogram.update(1000);
+    histogram.update(3000);
+    assertEquals(2, histogram.snapshotAndReset().getCount());
+
+    IntervalSnapshot empty = histogram.snapshotAndReset();
+    assertEquals(0, empty.getCount());
+    assertEquals(0.0, empty.getMax(), 0.0);
+
+    histogram.update(7);
+    IntervalSnapshot next = histogram.snapshotAndReset();
+    assertEquals(1, next.getCount());
+    assertEquals(7.0, next.getMin(), 0.0);
+    assertEquals(7.0, next.getMedian(), 0.0);
+  }
+
+  @Test
+  public void testClampsToTrackableRange() {
+    IntervalHistogram histogram = new IntervalHistogram(1000, 7);
+    histogram.update(-5);
+    histogram.update(1000000);
+
+    IntervalSnapshot snapshot = histogram.snapshotAndReset();
+    assertEquals(2, snapshot.getCount());
+    assertEquals(0.0, snapshot.getMin(), 0.0);
+    assertEquals(1000.0, snapshot.getMax(), 0.0);
+  }
+
+  @Test
+  public void testTimerReportsInDurationUnit() {
+    IntervalTimer timer = new IntervalTimer(TimeUnit.MILLISECONDS);
+    timer.update(250, TimeUnit.MILLISECONDS);
+
+    IntervalSnapshot snapshot = timer.snapshotAndReset();
+    assertEquals(250.0, snapshot.getMax(), 0.0);
+    assertEquals(250.0, snapshot.getMedian(), 0.0);
+  }
+
+  @Test
+  public void testRegistryReturnsExistingInstance() {
+    DatadogMetricsRegistry registry = new DatadogMetricsRegistry();
+    IntervalTimer timer = registry.newIntervalTimer(IntervalHistogramTest.class, "timer");
+    assertSame(timer, registry.newIntervalTimer(IntervalHistogramTest.class, "timer"));
+
+    IntervalHistogram histogram = registry.newIntervalHistogram(IntervalHistogramTest.class, "histogram");
+    assertSame(histogram, registry.newIntervalHistogram(IntervalHistogramTest.class, "histogram"));
+  }
+
+  @Test
+  public void testConcurrentWritersAreNotLost() throws Exception {
+    final IntervalHistogram histogram = new IntervalHistogram();
+    Thread[] writers = new Thread[4];
+    for (int t = 0; t < writers.length; t++) {
+      writers[t] = new Thread() {
+        public void run() {
+          for (int i = 0; i < 100000; i++) {
+            histogram.update(i);
+          }
+        }
+      };
+      writers[t].start();
+    }
+
+    long total = 0;
+    while (writers[0].isAlive() || writers[1].isAlive()
+        || writers[2].isAlive() || writers[3].isAlive()) {
+      total += histogram.snapshotAndReset().getCount();
+    }
+    for (Thread writer : writers) {
+      writer.join();
+    }
+    total += histogram.snapshotAndReset().getCount();
+
+    assertEquals(400000, total);
+  }
+}
@@ -0,0 +1,149 @@
+package com.yammer.metrics.reporting;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JvmMetricsCollectorTest {
+
+  JvmMetricsCollector collector;
+
+  @After
+  public void tearDown() {
+    if (collector != null) {
+      collector.close();
+    }
+  }
+
+  @Test
+  public void testCollectsEnabledGroupsOnly() {
+    collector = new JvmMetricsCollector(EnumSet.of(JvmMetricsCollector.Group.THREADS),
+        1, TimeUnit.SECONDS);
+    Map<String, Number> metrics = collect(collector);
+
+    assertEquals(3, metrics.size());
+    assertTrue(metrics.get("jvm.thread_count").intValue() > 0);
+    assertTrue(metrics.containsKey("jvm.daemon_thread_count"));
+  }
+
+  @Test
+  public void testCollectsAllGroups() {
+    collector = new JvmMetricsCollector(EnumSet.allOf(JvmMetricsCollector.Group.class),
+        1, TimeUnit.SECONDS);
+    Map<String, Number> metrics = collect(collector);
+
+    assertTrue(metrics.get("jvm.memory.heap.used").longValue() > 0);
+    boolean hasPool = false;
+    for (String name : metrics.keySet()) {
+      hasPool |= name.startsWith("jvm.memory.pool.used[pool:");
+    }
+    assertTrue(hasPool);
+    assertTrue(metrics.containsKey("jvm.buffer_pool.used[pool:direct]"));
+    assertTrue(metrics.containsKey("jvm.cpu.available_processors"));
+  }
+
+  @Test
+  public void testBudgetRotatesGroups() {
+    collector = new JvmMetricsCollector(EnumSet.of(JvmMetricsCollector.Group.MEMORY,
+        JvmMetricsCollector.Group.THREADS), 0, TimeUnit.NANOSECONDS);
+
+    Map<String, Number> first = collect(collector);
+    assertTrue(first.containsKey("jvm.memory.heap.used"));
+    assertFalse(first.containsKey("jvm.thread_count"));
+
+    Map<String, Number> second = collect(collector);
+    assertTrue(second.containsKey("jvm.thread_count"));
+    assertFalse(second.containsKey("jvm.memory.heap.used"));
+  }
+
+  @Test
+  public void testGcPausesFromNotifications() throws Exception {
+    collector = new JvmMetricsCollector(EnumSet.of(JvmMetricsCollector.Group.GC),
+        1, TimeUnit.SECONDS);
+    System.gc();
+
+    long pauses = 0;
+    for (int i = 0; i < 50 && pauses == 0; i++) {
+      Thread.sleep(100);
+      for (Map.Entry<String, Number> entry : collect(collector).entrySet()) {
+        if (entry.getKey().startsWith("jvm.gc.pause.count")) {
+          pauses += entry.getValue().longValue();
+        }
+      }
+    }
+    assertTrue(pauses > 0);
+  }
+
+  @Test
+  public void testConcurrentCyclesAreNotReportedAsPauses() throws Exception {
+    collector = new JvmMetricsCollector(EnumSet.of(JvmMetricsCollector.Group.GC),
+        1, TimeUnit.SECONDS);
+    collector.onGc(gcNotification("PS Scavenge", "end of minor GC", 12));
+    collector.onGc(gcNotification("PS MarkSweep", "end of major GC", 150));
+    collector.onGc(gcNotification("ConcurrentMarkSweep", "end of major GC", 4000));
+    collector.onGc(gcNotification("ZGC Cycles", "end of GC cycle", 900));
+    collector.onGc(gcNotification("ZGC Pauses", "end of GC pause", 1));
+    collector.onGc(gcNotification("Shenandoah Cycles", "end of GC cycle", 700));
+    collector.onGc(gcNotification("Shenandoah Pauses", "end of GC pause", 2));
+
+    Map<String, Number> metrics = collect(collector);
+    for (String pause : new String[] { "PS Scavenge", "PS MarkSweep", "ZGC Pauses",
+        "Shenandoah Pauses" }) {
+      assertEquals(1L, metrics.get("jvm.gc.pause.count[type:" + pause + "]"));
+      assertFalse(metrics.containsKey("jvm.gc.cycle.count[type:" + pause + "]"));
+    }
+    for (String cycle : new String[] { "ConcurrentMarkSweep", "ZGC Cycles",
+        "Shenandoah Cycles" }) {
+      assertEquals(1L, metrics.get("jvm.gc.cycle.count[type:" + cycle + "]"));
+      assertFalse(metrics.containsKey("jvm.gc.pause.count[type:" + cycle + "]"));
+    }
+    assertEquals(4000.0, metrics.get("jvm.gc.cycle.max[type:ConcurrentMarkSweep]").doubleValue(),
+        4000.0 * 0.01);
+    assertEquals(150.0, metrics.get("jvm.gc.pause.max[type:PS MarkSweep]").doubleValue(),
+        150.0 * 0.01);
+  }
+
+  private static CompositeData gcNotification(String gcName, String gcAction,
+      long durationMillis) throws Exception {
+    CompositeType gcInfoType = new CompositeType("GcInfo", "GcInfo",
+        new String[] { "duration" }, new String[] { "duration" },
+        new OpenType<?>[] { SimpleType.LONG });
+    CompositeType notificationType = new CompositeType("GcNotification",
+        "GcNotification", new String[] { "gcName", "gcAction", "gcCause", "gcInfo" },
+        new String[] { "gcName", "gcAction", "gcCause", "gcInfo" },
+        new OpenType<?>[] { SimpleType.STRING, SimpleType.STRING, SimpleType.STRING,
+            gcInfoType });
+    return new CompositeDataSupport(notificationType,
+        new String[] { "gcName", "gcAction", "gcCause", "gcInfo" },
+        new Object[] { gcName, gcAction, "Test",
+            new CompositeDataSupport(gcInfoType, new String[] { "duration" },
+                new Object[] { durationMillis }) });
+  }
+
+  private static Map<String, Number> collect(VmMetricsCollector collector) {
+    final Map<String, Number> metrics = new LinkedHashMap<String, Number>();
+    collector.collect(new VmMetricsCollector.Writer() {
+      public void gauge(String name, Number value) {
+        metrics.put(name, value);
+      }
+
+      public void counter(String name, long value) {
+        metrics.put(name, value);
+      }
+    });
+    return metrics;
+  }
+}
@@ -0,0 +1,151 @@
+package com.yammer.metrics.reporting;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class MetricsRelayTest {
+
+  IntakeSimulator intake;
+  int port;
+
+  @Before
+  public void setUp() throws IOException {
+    intake = new IntakeSimulator();
+    intake.start();
+    ServerSocket probe = new ServerSocket(0);
+    port = probe.getLocalPort();
+    probe.close();
+  }
+
+  @After
+  public void tearDown() {
+    intake.stop();
+  }
+
+  @Test
+  public void testPayloadsFromSeveralJvmsAreConsolidated() throws Exception {
+    RelayTransport first = newRelayTransport();
+    RelayTransport second = newRelayTransport();
+    RelayTransport third = newRelayTransport();
+
+    send(first, series("first.a", "first.b"));
+    send(second, series("second.a"));
+    send(third, series("third.a", "third.b", "third.c"));
+
+    assertNotNull(first.getRelay());
+    assertNull(second.getRelay());
+    assertNull(third.getRelay());
+
+    second.shutdown();
+    third.shutdown();
+    first.shutdown();
+
+    assertEquals(1, intake.requests.get());
+    assertEquals(1, intake.compressedRequests.get());
+    assertEquals(0, intake.invalidRequests.get());
+    assertEquals(6, intake.seriesAccepted.get());
+  }
+
+  @Test
+  public void testClientTakesOverWhenRelayGoesAway() throws Exception {
+    RelayTransport first = newRelayTransport();
+    RelayTransport second = newRelayTransport();
+    send(first, series("first.a"));
+    send(second, series("second.a"));
+    first.shutdown();
+    assertEquals(2, intake.seriesAccepted.get());
+
+    send(second, series("second.b"));
+    assertNotNull(second.getRelay());
+    second.shutdown();
+
+    assertEquals(2, intake.requests.get());
+    assertEquals(3, intake.seriesAccepted.get());
+  }
+
+  @Test
+  public void testMalformedPayloadDoesNotCorruptBatch() throws Exception {
+    RelayTransport transport = newRelayTransport();
+    send(transport, series("good.a"));
+    try {
+      send(transport, "{\"series\":[{\"metric\":");
+    } catch (IOException e) {
+      // expected
+    }
+    send(transport, series("good.b"));
+    transport.shutdown();
+
+    assertEquals(0, intake.invalidRequests.get());
+    assertEquals(2, intake.seriesAccepted.get());
+  }
+
+  @Test
+  public void testRelayRejectsClientsWithAnotherUpstream() throws Exception {
+    RelayTransport first = newRelayTransport("key-a");
+    RelayTransport second = newRelayTransport("key-b");
+    send(first, series("first.a"));
+    send(second, series("second.a", "second.b"));
+
+    assertNotNull(first.getRelay());
+    assertNull(second.getRelay());
+    assertEquals(1, intake.requests.get());
+    assertEquals(Collections.singleton("key-b"), new HashSet<String>(intake.apiKeys));
+
+    first.shutdown();
+    second.shutdown();
+    assertEquals(2, intake.requests.get());
+    assertEquals(new HashSet<String>(Arrays.asList("key-a", "key-b")),
+        new HashSet<String>(intake.apiKeys));
+  }
+
+  @Test
+  public void testDefaultPortFollowsUpstream() {
+    String a = MetricsRelay.identityOf(new HttpTransport("key-a", intake.getBaseUrl(), true));
+    String a2 = MetricsRelay.identityOf(new HttpTransport("key-a", intake.getBaseUrl(), true));
+    String b = MetricsRelay.identityOf(new HttpTransport("key-b", intake.getBaseUrl(), true));
+    assertEquals(a, a2);
+    assertFalse(a.equals(b));
+    assertEquals(MetricsRelay.portFor(a), MetricsRelay.portFor(a2));
+  }
+
+  private RelayTransport newRelayTransport() {
+    return newRelayTransport("relay-test");
+  }
+
+  private RelayTransport newRelayTransport(String apiKey) {
+    return new RelayTransport(port,
+        new HttpTransport(apiKey, intake.getBaseUrl(), true),
+        1, TimeUnit.HOURS);
+  }
+
+  private static String series(String... metrics) {
+    StringBuilder sb = new StringBuilder("{\"series\":[");
+    for (int i = 0; i < metrics.length; i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append("{\"metric\":\"").append(metrics[i])
+          .append("\",\"points\":[[1,").append(i).append("]],\"type\":\"gauge\"}");
+    }
+    return sb.append("]}").toString();
+  }
+
+  private static void send(Transport transport, String payload) throws Exception {
+    Transport.Request request = transport.prepare();
+    request.getBodyWriter().write(payload.getBytes("UTF-8"));
+    request.send();
+  }
+}
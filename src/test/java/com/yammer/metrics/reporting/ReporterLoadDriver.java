@@ -0,0 +1,162 @@
+package com.yammer.metrics.reporting;
+
+import com.yammer.metrics.core.Clock;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricPredicate;
+import com.yammer.metrics.core.VirtualMachineMetrics;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link DatadogReporter} against a large synthetic registry and an
+ * {@link IntakeSimulator} under each fault profile, and prints tick latency,
+ * bytes on the wire and the share of series that did not make it.
+ *
+ * Usage: ReporterLoadDriver [metrics] [ticks]
+ */
+public class ReporterLoadDriver {
+
+  public static final IntakeSimulator.FaultProfile[] PROFILES = {
+    IntakeSimulator.FaultProfile.NONE,
+    new IntakeSimulator.FaultProfile("latency-100ms", 100, 0, 0, 0),
+    new IntakeSimulator.FaultProfile("throttle-10%", 0, 0.10, 0, 0),
+    new IntakeSimulator.FaultProfile("5xx-10%", 0, 0, 0.10, 0),
+    new IntakeSimulator.FaultProfile("drop-10%", 0, 0, 0, 0.10),
+    new IntakeSimulator.FaultProfile("mixed", 20, 0.05, 0.05, 0.05),
+  };
+
+  public static class Result {
+    public final String profile;
+    public final long[] tickNanos;
+    public final long bytes;
+    public final long seriesSent;
+    public final long seriesAccepted;
+    public final long invalidRequests;
+
+    Result(String profile, long[] tickNanos, long bytes, long seriesSent,
+        long seriesAccepted, long invalidRequests) {
+      this.profile = profile;
+      this.tickNanos = tickNanos;
+      this.bytes = bytes;
+      this.seriesSent = seriesSent;
+      this.seriesAccepted = seriesAccepted;
+      this.invalidRequests = invalidRequests;
+    }
+
+    public double lossPercent() {
+      return seriesSent == 0 ? 0.0
+          : 100.0 * (seriesSent - seriesAccepted) / seriesSent;
+    }
+
+    public long tickPercentileMillis(double quantile) {
+      final long[] sorted = tickNanos.clone();
+      Arrays.sort(sorted);
+      final int index = (int) Math.min(sorted.length - 1,
+          Math.ceil(quantile * sorted.length) - 1);
+      return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%-14s ticks=%d p50=%dms p99=%dms max=%dms bytes/tick=%d loss=%.2f%% invalid=%d",
+          profile, tickNanos.length, tickPercentileMillis(0.5),
+          tickPercentileMillis(0.99), tickPercentileMillis(1.0),
+          tickNanos.length == 0 ? 0 : bytes / tickNanos.length,
+          lossPercent(), invalidRequests);
+    }
+  }
+
+  public static Result run(IntakeSimulator intake,
+      IntakeSimulator.FaultProfile profile, int metrics, int ticks) {
+    final DatadogMetricsRegistry registry = new DatadogMetricsRegistry();
+    final HttpTransport transport = new HttpTransport("load-test", intake.getBaseUrl());
+    try {
+      populate(registry, metrics);
+      intake.reset();
+      intake.setFaults(profile);
+
+      final DatadogReporter reporter = new DatadogReporter(registry,
+          MetricPredicate.ALL, VirtualMachineMetrics.getInstance(),
+          transport,
+          Clock.defaultClock(), "load-test-host",
+          DatadogReporter.Expansions.ALL, false,
+          new DefaultMetricNameFormatter());
+
+      final long[] tickNanos = new long[ticks];
+      for (int i = 0; i < ticks; i++) {
+        final long start = System.nanoTime();
+        reporter.run();
+        tickNanos[i] = System.nanoTime() - start;
+      }
+
+      return new Result(profile.name, tickNanos, intake.bytesReceived.get(),
+          intake.seriesReceived.get(), intake.seriesAccepted.get(),
+          intake.invalidRequests.get());
+    } finally {
+      registry.shutdown();
+      try {
+        transport.close();
+      } catch (IOException e) {
+        // nothing left to release
+      }
+    }
+  }
+
+  static void populate(DatadogMetricsRegistry registry, int metrics) {
+    for (int i = 0; i < metrics; i++) {
+      final String name = "metric" + i + "[shard:" + (i % 16) + "]";
+      switch (i % 6) {
+        case 0:
+          registry.newCounter(ReporterLoadDriver.class, name).inc(i);
+          break;
+        case 1:
+          final long value = i;
+          registry.newGauge(ReporterLoadDriver.class, name, new Gauge<Long>() {
+            @Override
+            public Long value() {
+              return value;
+            }
+          });
+          break;
+        case 2:
+          registry.newMeter(ReporterLoadDriver.class, name, "events",
+              TimeUnit.SECONDS).mark(i);
+          break;
+        case 3:
+          final Histogram histogram = registry.newHistogram(ReporterLoadDriver.class, name);
+          for (int j = 0; j < 100; j++) {
+            histogram.update(j * i);
+          }
+          break;
+        case 4:
+          registry.newTimer(ReporterLoadDriver.class, name)
+              .update(i % 1000, TimeUnit.MILLISECONDS);
+          break;
+        default:
+          final IntervalTimer timer = registry.newIntervalTimer(ReporterLoadDriver.class, name);
+          for (int j = 0; j < 100; j++) {
+            timer.update(j, TimeUnit.MILLISECONDS);
+          }
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    final int metrics = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    final int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+    final IntakeSimulator intake = new IntakeSimulator();
+    intake.start();
+    try {
+      System.out.println("metrics=" + metrics + " ticks=" + ticks);
+      for (IntakeSimulator.FaultProfile profile : PROFILES) {
+        System.out.println(run(intake, profile, metrics, ticks));
+      }
+    } finally {
+      intake.stop();
+    }
+  }
+}
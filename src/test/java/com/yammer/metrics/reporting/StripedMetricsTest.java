@@ -0,0 +1,87 @@
+package com.yammer.metrics.reporting;
+
+import com.yammer.metrics.core.Clock;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StripedMetricsTest {
+
+  @Test
+  public void testConcurrentIncrementsAreNotLost() throws Exception {
+    final StripedCounter counter = new StripedCounter();
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        public void run() {
+          for (int i = 0; i < 100000; i++) {
+            counter.inc();
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(800000, counter.count());
+    counter.dec(800000);
+    assertEquals(0, counter.count());
+  }
+
+  @Test
+  public void testMeterRatesFollowMarks() {
+    ManualClock clock = new ManualClock();
+    StripedMeter meter = new StripedMeter("requests", TimeUnit.SECONDS, clock);
+
+    for (int tick = 0; tick < 12; tick++) {
+      meter.mark(50);
+      clock.nanos += TimeUnit.SECONDS.toNanos(5);
+      meter.oneMinuteRate();
+    }
+
+    assertEquals(600, meter.count());
+    assertEquals(10.0, meter.meanRate(), 0.001);
+    assertEquals(10.0, meter.oneMinuteRate(), 0.001);
+    assertEquals(10.0, meter.fifteenMinuteRate(), 0.001);
+
+    // a quiet minute, read only once at the end
+    clock.nanos += TimeUnit.MINUTES.toNanos(1);
+    assertTrue(meter.oneMinuteRate() < 5.0);
+    assertTrue(meter.fifteenMinuteRate() > 9.0);
+  }
+
+  @Test
+  public void testMeterRatesIndependentOfReadPeriod() {
+    assertConstantRateAtReadPeriod(10);
+    assertConstantRateAtReadPeriod(60);
+  }
+
+  private static void assertConstantRateAtReadPeriod(int readPeriodSeconds) {
+    ManualClock clock = new ManualClock();
+    StripedMeter meter = new StripedMeter("requests", TimeUnit.SECONDS, clock);
+
+    for (int second = 1; second <= 1800; second++) {
+      meter.mark(10);
+      clock.nanos += TimeUnit.SECONDS.toNanos(1);
+      if (second % readPeriodSeconds == 0) {
+        assertEquals(10.0, meter.oneMinuteRate(), 0.01);
+        assertEquals(10.0, meter.fiveMinuteRate(), 0.01);
+        assertEquals(10.0, meter.fifteenMinuteRate(), 0.01);
+      }
+    }
+  }
+
+  static class ManualClock extends Clock {
+    long nanos = 0;
+
+    @Override
+    public long tick() {
+      return nanos;
+    }
+  }
+}